@@ -0,0 +1,91 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Heap cost of a catalog of 1M titles, of which a given share has been reserved. Run with the GC
+// profiler, e.g. -Djmh.args="BookFootprint -prof gc"; gc.alloc.rate.norm is then the bytes allocated
+// per title (Book plus its queue, if any). Titles and ISBNs are created in setup, so only the Book
+// and its reservation structures are counted. queueAllocation=eager creates every queue up front,
+// which is the baseline the lazy numbers are compared against.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookFootprintBenchmark {
+    private static final int TITLES = 1_000_000;
+
+    @Param({"0", "1"})
+    int reservedPercent;
+
+    @Param({"lazy", "eager"})
+    String queueAllocation;
+
+    boolean eager;
+
+    String[] titles;
+    String[] isbns;
+    Reservation[] holds;
+    Book[] catalog;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryLog.setSink(LogSink.NONE);
+        eager = "eager".equals(queueAllocation);
+        titles = new String[TITLES];
+        isbns = new String[TITLES];
+        for (int i = 0; i < TITLES; i++) {
+            titles[i] = "Title " + i;
+            isbns[i] = "ISBN-" + i;
+        }
+        Book sample = new Book("Sample", "Author", "S-1", BookType.GENERAL, 1);
+        holds = new Reservation[100];
+        for (int i = 0; i < holds.length; i++) {
+            holds[i] = new Reservation(sample, new RegularUser("R" + i, "R" + i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        catalog = null;
+    }
+
+    @TearDown(Level.Invocation)
+    public void release() {
+        catalog = null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TITLES)
+    public Book[] buildCatalog() {
+        Book[] books = new Book[TITLES];
+        for (int i = 0; i < TITLES; i++) {
+            Book book = new Book(titles[i], "Author", isbns[i], BookType.GENERAL, 3);
+            if (eager) {
+                book.getReservationQueue();
+            }
+            if (i % 100 < reservedPercent) {
+                book.addReservation(holds[i % holds.length]);
+            }
+            books[i] = book;
+        }
+        catalog = books;
+        return books;
+    }
+}
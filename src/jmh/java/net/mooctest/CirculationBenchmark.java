@@ -0,0 +1,82 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Borrow followed by return of a random title by a random member, against a shared catalog.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CirculationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"100000"})
+        int books;
+
+        @Param({"10000"})
+        int users;
+
+        Book[] catalog;
+        RegularUser[] regulars;
+        VIPUser[] vips;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            LibraryLog.setSink(LogSink.NONE);
+            Library library = new Library();
+            catalog = new Book[books];
+            for (int i = 0; i < books; i++) {
+                // Plenty of copies so threads never run a title dry.
+                catalog[i] = new Book("Title " + i, "Author " + (i % 5000), "ISBN-" + i, BookType.GENERAL, 1_000_000);
+            }
+            library.importBooks(java.util.Arrays.stream(catalog), books);
+            regulars = new RegularUser[users];
+            vips = new VIPUser[users];
+            for (int i = 0; i < users; i++) {
+                regulars[i] = new RegularUser("Regular " + i, "R" + i);
+                vips[i] = new VIPUser("VIP " + i, "V" + i);
+                library.registerUser(regulars[i]);
+                library.registerUser(vips[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        final SplittableRandom random = new SplittableRandom(7);
+    }
+
+    @Benchmark
+    public int regularBorrowReturn(Catalog c, Picker p) throws Exception {
+        RegularUser user = c.regulars[p.random.nextInt(c.users)];
+        Book book = c.catalog[p.random.nextInt(c.books)];
+        user.borrowBook(book);
+        user.returnBook(book);
+        return user.getCreditScore();
+    }
+
+    @Benchmark
+    public int vipBorrowReturn(Catalog c, Picker p) throws Exception {
+        VIPUser user = c.vips[p.random.nextInt(c.users)];
+        Book book = c.catalog[p.random.nextInt(c.books)];
+        user.borrowBook(book);
+        user.returnBook(book);
+        return user.getCreditScore();
+    }
+}
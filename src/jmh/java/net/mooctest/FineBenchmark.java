@@ -0,0 +1,55 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Fine calculation over a mix of book types, overdue lengths and damage.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FineBenchmark {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int RECORDS = 1024; // power of two for cheap wrap-around
+
+    BorrowRecord[] records;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryLog.setSink(LogSink.NONE);
+        BookType[] types = BookType.values();
+        long now = System.currentTimeMillis();
+        records = new BorrowRecord[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            Book book = new Book("T" + i, "A", "F-" + i, types[i % types.length], 1);
+            if (i % 16 == 0) {
+                book.setDamaged(true);
+            }
+            RegularUser user = new RegularUser("U" + i, "FU" + i);
+            long borrowed = now - (14 + i % 60) * DAY;
+            BorrowRecord record = new BorrowRecord(book, user, new Date(borrowed), new Date(borrowed + 14 * DAY));
+            record.setReturnDate(new Date(now));
+            records[i] = record;
+        }
+    }
+
+    @Benchmark
+    public double calculateFine() {
+        return records[next++ & (RECORDS - 1)].calculateFine();
+    }
+}
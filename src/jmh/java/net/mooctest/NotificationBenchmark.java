@@ -0,0 +1,85 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Cost on the caller's thread of sending one notification inline, through the async dispatcher,
+// and through the per-channel batcher.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationBenchmark {
+    private static final int USERS = 4096; // power of two for cheap wrap-around
+
+    NotificationService service;
+    NotificationDispatcher dispatcher;
+    NotificationBatcher batcher;
+    User[] users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryLog.setSink(LogSink.NONE);
+        service = new NotificationService();
+        dispatcher = new NotificationDispatcher(service, 4, 65536, OverflowPolicy.CALLER_RUNS);
+        Map<NotificationChannel, BatchChannel> channels = new EnumMap<>(NotificationChannel.class);
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            channels.put(channel, service.batchChannel(channel));
+        }
+        batcher = new NotificationBatcher(channels, 500, 100);
+        users = new User[USERS];
+        for (int i = 0; i < USERS; i++) {
+            User user = new RegularUser("U" + i, "NU" + i);
+            // Mix of channels, including email-less users that fall back to SMS or in-app.
+            if (i % 3 != 0) {
+                user.setEmail("u" + i + "@example.com");
+            } else if (i % 2 == 0) {
+                user.setPhoneNumber("1380000" + i);
+            }
+            users[i] = user;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.close();
+        batcher.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public void inline(Cursor cursor) {
+        service.sendNotification(users[cursor.next++ & (USERS - 1)], "Your reserved book is ready.");
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> dispatched(Cursor cursor) {
+        return dispatcher.dispatch(users[cursor.next++ & (USERS - 1)], "Your reserved book is ready.");
+    }
+
+    @Benchmark
+    public boolean batched(Cursor cursor) {
+        return batcher.submit(users[cursor.next++ & (USERS - 1)], "Your reserved book is ready.");
+    }
+}
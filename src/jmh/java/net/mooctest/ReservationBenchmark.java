@@ -0,0 +1,73 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Hold queue operations on a hot title with a realistic backlog of holds.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReservationBenchmark {
+    @Param({"1000", "10000"})
+    int queued;
+
+    Book book;
+    Reservation[] pool;
+    SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryLog.setSink(LogSink.NONE);
+        book = new Book("Hot title", "Author", "HOT-1", BookType.GENERAL, 1);
+        random = new SplittableRandom(11);
+        pool = new Reservation[queued * 2];
+        for (int i = 0; i < pool.length; i++) {
+            User user = i % 10 == 0 ? new VIPUser("V" + i, "V" + i) : new RegularUser("R" + i, "R" + i);
+            user.creditScore = 50 + random.nextInt(100);
+            pool[i] = new Reservation(book, user);
+        }
+        for (int i = 0; i < queued; i++) {
+            book.addReservation(pool[i]);
+        }
+    }
+
+    // Steady state: one hold joins and the head is served, so the queue length stays constant.
+    @Benchmark
+    public Reservation enqueuePoll() {
+        Queue<Reservation> queue = book.getReservationQueue();
+        Reservation head = queue.poll();
+        queue.add(head);
+        return head;
+    }
+
+    // Cancel an arbitrary hold and place it again.
+    @Benchmark
+    public Reservation cancelAndRequeue() {
+        Reservation reservation = pool[random.nextInt(queued)];
+        book.removeReservation(reservation);
+        book.addReservation(reservation);
+        return reservation;
+    }
+
+    @Benchmark
+    public Reservation createReservation() {
+        return new Reservation(book, pool[random.nextInt(pool.length)].getUser());
+    }
+}
@@ -0,0 +1,74 @@
+package net.mooctest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Catalog search latency over a synthetic catalog whose titles are three words drawn from a
+// 20,000-word vocabulary and whose authors come from a pool of 50,000 names.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    private static final int WORDS = 20_000;
+
+    @Param({"1000000"})
+    int books;
+
+    Library library;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryLog.setSink(LogSink.NONE);
+        SplittableRandom random = new SplittableRandom(42);
+        library = new Library();
+        Book[] catalog = new Book[books];
+        for (int i = 0; i < books; i++) {
+            String title = word(random.nextInt(WORDS)) + " " + word(random.nextInt(WORDS)) + " " + word(random.nextInt(WORDS));
+            catalog[i] = new Book(title, "Author " + word(random.nextInt(50_000)), "ISBN-" + i, BookType.GENERAL,
+                    random.nextInt(4));
+        }
+        library.importBooks(java.util.Arrays.stream(catalog), books);
+    }
+
+    // Distinct pronounceable words, so prefixes and near-misses of real terms exist.
+    static String word(int n) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append("bcdfghjklmnpqrstvz".charAt(n % 18)).append("aeiou".charAt((n / 18) % 5));
+            n /= 90;
+        } while (n > 0);
+        return word.toString();
+    }
+
+    @Benchmark
+    public List<Book> exactTwoTerms() {
+        return library.searchBooks(word(1234) + " " + word(777), 20);
+    }
+
+    @Benchmark
+    public List<Book> prefix() {
+        return library.searchBooks(word(5678).substring(0, 4), 20);
+    }
+
+    @Benchmark
+    public List<Book> fuzzy() {
+        return library.searchBooks(word(4321) + "x", 20);
+    }
+}
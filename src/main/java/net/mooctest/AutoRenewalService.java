@@ -5,23 +5,65 @@ import net.mooctest.AccountFrozenException;
 import net.mooctest.InsufficientCreditException;
 import net.mooctest.InvalidOperationException;
 
+import java.util.List;
+import java.util.stream.IntStream;
+
 class AutoRenewalService {
+    private static final int RENEWAL_DAYS = 14; // The default renewal period is 14 days.
+
     public void autoRenew(User user, Book book) throws Exception {
-        if (user.getAccountStatus() != AccountStatus.ACTIVE) {
-            throw new AccountFrozenException("The account is frozen and cannot be automatically renewed.");
-        }
-        if (book.getReservationQueue().size() > 0) {
-            throw new InvalidOperationException("The book has been reserved by other users and cannot be renewed.");
-        }
-        if (user.getCreditScore() < 60) {
-            throw new InsufficientCreditException("The credit score is too low to renew the loan.");
+        switch (check(user, book)) {
+            case ACCOUNT_NOT_ACTIVE:
+                throw new AccountFrozenException("The account is frozen and cannot be automatically renewed.");
+            case RESERVED:
+                throw new InvalidOperationException("The book has been reserved by other users and cannot be renewed.");
+            case LOW_CREDIT:
+                throw new InsufficientCreditException("The credit score is too low to renew the loan.");
+            default:
+                break;
         }
         // Update the due date of the borrowing record.
         BorrowRecord record = user.findBorrowRecord(book);
         if (record != null) {
-            record.extendDueDate(14);  // The default renewal period is 14 days.
+            record.extendDueDate(RENEWAL_DAYS);
         } else {
             throw new InvalidOperationException("The borrowing record of this book is not found.");
         }
     }
+
+    // Renew each loan that is eligible, in parallel. The result for loans.get(i) is at index i.
+    // Ineligible loans are reported by code rather than by exception.
+    public RenewalResult[] renewAll(List<BorrowRecord> loans) {
+        RenewalResult[] results = new RenewalResult[loans.size()];
+        IntStream.range(0, results.length).parallel().forEach(i -> results[i] = renew(loans.get(i)));
+        return results;
+    }
+
+    private RenewalResult renew(BorrowRecord record) {
+        User user = record.getUser();
+        synchronized (user.lock()) {
+            if (record.isReturned()) {
+                return RenewalResult.NOT_BORROWED;
+            }
+            RenewalResult result = check(user, record.getBook());
+            if (result == RenewalResult.RENEWED) {
+                record.extendDueDate(RENEWAL_DAYS);
+            }
+            return result;
+        }
+    }
+
+    // Whether the user may renew the book, checked in the same order autoRenew reports failures.
+    private RenewalResult check(User user, Book book) {
+        if (user.getAccountStatus() != AccountStatus.ACTIVE) {
+            return RenewalResult.ACCOUNT_NOT_ACTIVE;
+        }
+        if (book.hasReservations()) {
+            return RenewalResult.RESERVED;
+        }
+        if (user.getCreditScore() < 60) {
+            return RenewalResult.LOW_CREDIT;
+        }
+        return RenewalResult.RENEWED;
+    }
 }
@@ -0,0 +1,9 @@
+package net.mooctest;
+
+import java.util.List;
+
+// Sends many notifications of one channel in a single call.
+interface BatchChannel {
+    // Deliver the whole batch. Throwing means none of it can be assumed delivered.
+    void deliver(List<Notification> batch) throws Exception;
+}
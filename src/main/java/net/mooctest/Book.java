@@ -5,18 +5,25 @@ import net.mooctest.BookNotAvailableException;
 import net.mooctest.InvalidOperationException;
 
 import java.util.Comparator;
-import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 class Book {
+    // Copy counts are updated with CAS so concurrent borrow/return never oversell or overflow.
+    // A field updater is used instead of an AtomicInteger to avoid an extra object per title.
+    private static final AtomicIntegerFieldUpdater<Book> AVAILABLE_COPIES =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "availableCopies");
+    private static final Comparator<Reservation> BY_PRIORITY = Comparator.comparingInt(Reservation::getPriority);
+    // Title and author are canonical instances from the owning library's StringPool once the book is
+    // added, so editions of the same author share one string.
     private String title;
     private String author;
     private String isbn;
     private BookType bookType;
-    private int totalCopies;
-    private int availableCopies;
+    private volatile int totalCopies;
+    private volatile int availableCopies;
     private boolean inRepair; // the book under repair or not
     private boolean isDamaged; // the book is damaged or not
-    private Queue<Reservation> reservationQueue;
+    private ReservationQueue reservationQueue; // created on first use; most titles are never reserved
 
     public Book(String title, String author, String isbn, BookType bookType, int totalCopies) {
         this.title = title;
@@ -27,21 +34,20 @@ class Book {
         this.availableCopies = totalCopies;
         this.inRepair = false;
         this.isDamaged = false;
-        this.reservationQueue = new PriorityQueue<>(Comparator.comparingInt(Reservation::getPriority));
     }
 
     // Judge whether the book is available.
     public boolean isAvailable() {
         if (inRepair) {
-            System.out.println("The book is under repair and temporarily unavailable.");
+            LibraryLog.warn("The book is under repair and temporarily unavailable.");
             return false;
         }
         if (isDamaged) {
-            System.out.println("The book is damaged and cannot be borrowed.");
+            LibraryLog.warn("The book is damaged and cannot be borrowed.");
             return false;
         }
         if (availableCopies <= 0) {
-            System.out.println("There are no available copies.");
+            LibraryLog.warn("There are no available copies.");
             return false;
         }
         return true;
@@ -49,55 +55,111 @@ class Book {
 
     // Borrow a book.
     public void borrow() throws Exception {
-        if (!isAvailable()) {
+        if (!tryBorrow()) {
             throw new BookNotAvailableException("The book is unavailable and cannot be borrowed.");
         }
-        availableCopies--;
-        System.out.println("Successfully borrowed the book. Remaining copies:" + availableCopies);
+    }
+
+    // Borrow a book without throwing. Returns false if no copy could be taken.
+    public boolean tryBorrow() {
+        if (!isAvailable()) {
+            return false;
+        }
+        // Another borrower may have taken the last copy since the check above.
+        int remaining = takeCopy();
+        if (remaining < 0) {
+            LibraryLog.warn("There are no available copies.");
+            return false;
+        }
+        LibraryLog.info(() -> "Successfully borrowed the book. Remaining copies:" + remaining);
+        return true;
     }
 
     // Return a book.
     public void returnBook() throws InvalidOperationException {
-        if (availableCopies >= totalCopies) {
+        if (!tryReturn()) {
             throw new InvalidOperationException("All copies are in the library.");
         }
-        availableCopies++;
-        System.out.println("Successfully returned the book. Currently available copies for borrowing:" + availableCopies);
+    }
+
+    // Return a book without throwing. Returns false if all copies were already in the library.
+    public boolean tryReturn() {
+        int available = putBackCopy();
+        if (available < 0) {
+            return false;
+        }
+        LibraryLog.info(() -> "Successfully returned the book. Currently available copies for borrowing:" + available);
+        return true;
+    }
+
+    // Atomically take one copy. Returns the remaining copies, or -1 if none was available.
+    private int takeCopy() {
+        while (true) {
+            int current = availableCopies;
+            if (current <= 0) {
+                return -1;
+            }
+            if (AVAILABLE_COPIES.compareAndSet(this, current, current - 1)) {
+                return current - 1;
+            }
+        }
+    }
+
+    // Atomically put one copy back. Returns the available copies, or -1 if all copies were already in.
+    private int putBackCopy() {
+        while (true) {
+            int current = availableCopies;
+            if (current >= totalCopies) {
+                return -1;
+            }
+            if (AVAILABLE_COPIES.compareAndSet(this, current, current + 1)) {
+                return current + 1;
+            }
+        }
     }
 
     // Report book damage.
     public void reportDamage() {
         if (isDamaged) {
-            System.out.println("This book is damaged. No need to report it again.");
+            LibraryLog.warn("This book is damaged. No need to report it again.");
         } else {
             isDamaged = true;
-            System.out.println("Report book damage.");
+            LibraryLog.info("Report book damage.");
         }
     }
 
     // Report that the book is under repair.
     public void reportRepair() {
         if (inRepair) {
-            System.out.println("The book is already under repair.");
+            LibraryLog.warn("The book is already under repair.");
         } else {
             inRepair = true;
-            System.out.println("Report book repair.");
+            LibraryLog.info("Report book repair.");
         }
     }
 
+    // Reservation queue operations hold the book's monitor, since the library drains queues on
+    // worker threads while users cancel or re-prioritize their holds.
+
     // Add a reservation.
-    public void addReservation(Reservation reservation) {
-        reservationQueue.add(reservation);
-        System.out.println("Reservation added successfully.");
+    public synchronized void addReservation(Reservation reservation) {
+        getReservationQueue().add(reservation);
+        LibraryLog.info("Reservation added successfully.");
     }
 
     // Remove reservation.
-    public void removeReservation(Reservation reservation) {
-        if (reservationQueue.contains(reservation)) {
-            reservationQueue.remove(reservation);
-            System.out.println("Reservation cancelled successfully.");
+    public synchronized void removeReservation(Reservation reservation) {
+        if (reservationQueue != null && reservationQueue.remove(reservation)) {
+            LibraryLog.info("Reservation cancelled successfully.");
         } else {
-            System.out.println("This reservation is not in the reservation queue.");
+            LibraryLog.warn("This reservation is not in the reservation queue.");
+        }
+    }
+
+    // Re-sort a queued reservation whose priority has changed. O(log n).
+    public synchronized void updateReservation(Reservation reservation) {
+        if (reservationQueue != null) {
+            reservationQueue.update(reservation);
         }
     }
 
@@ -105,10 +167,37 @@ class Book {
         return bookType;
     }
 
-    public Queue<Reservation> getReservationQueue() {
+    // Allocates the queue if the book has never been reserved; hasReservations, reservationCount and
+    // pollReservation answer without one. Callers that use the queue directly synchronize on the book.
+    public synchronized Queue<Reservation> getReservationQueue() {
+        if (reservationQueue == null) {
+            reservationQueue = new ReservationQueue(BY_PRIORITY);
+        }
         return reservationQueue;
     }
 
+    public boolean hasReservations() {
+        return reservationCount() > 0;
+    }
+
+    public synchronized int reservationCount() {
+        return reservationQueue == null ? 0 : reservationQueue.size();
+    }
+
+    // Take the first reservation off the queue, or null if there is none.
+    public synchronized Reservation pollReservation() {
+        return reservationQueue == null ? null : reservationQueue.poll();
+    }
+
+    // Whether the reservation is still waiting in this book's queue.
+    public synchronized boolean isQueued(Reservation reservation) {
+        return reservationQueue != null && reservationQueue.contains(reservation);
+    }
+
+    public boolean isInRepair() {
+        return inRepair;
+    }
+
     public void setInRepair(boolean inRepair) {
         this.inRepair = inRepair;
     }
@@ -144,4 +233,41 @@ class Book {
     public void setTitle(String title) {
         this.title = title;
     }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    // Replace title and author with the pool's instances of them.
+    void internStrings(StringPool pool) {
+        title = pool.canonical(title);
+        author = pool.canonical(author);
+    }
+
+    // Same author. Books interned in the same pool compare by reference.
+    public boolean hasSameAuthor(Book other) {
+        return author == other.author || author != null && author.equals(other.author);
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    // Books are identified by ISBN, so two copies of the same edition are the same catalog entry.
+    // A book without an ISBN is only equal to itself.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Book)) {
+            return false;
+        }
+        return isbn != null && isbn.equals(((Book) o).isbn);
+    }
+
+    @Override
+    public int hashCode() {
+        return isbn != null ? isbn.hashCode() : System.identityHashCode(this);
+    }
 }
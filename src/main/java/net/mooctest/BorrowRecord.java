@@ -1,90 +1,135 @@
 package net.mooctest;
 
 import net.mooctest.AccountStatus;
-import net.mooctest.BookType;
 
 import java.util.Date;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Calendar;
 
 class BorrowRecord {
+    private static final long NOT_RETURNED = Long.MIN_VALUE;
+
     private Book book;
     private User user;
-    private Date borrowDate;
-    private Date dueDate;
-    private Date returnDate;
+    // Dates are kept as epoch milliseconds; Date objects are only created by the getters.
+    private long borrowDate;
+    private long dueDate;
+    private long returnDate;
     private double fineAmount;
+    DueDateIndex dueDateIndex; // index this loan is filed in, if any; maintained by DueDateIndex
 
     public BorrowRecord(Book book, User user, Date borrowDate, Date dueDate) {
+        this(book, user, borrowDate.getTime(), dueDate.getTime());
+    }
+
+    public BorrowRecord(Book book, User user, long borrowDate, long dueDate) {
         this.book = book;
         this.user = user;
         this.borrowDate = borrowDate;
         this.dueDate = dueDate;
-        this.returnDate = null;
+        this.returnDate = NOT_RETURNED;
         this.fineAmount = 0.0;
     }
 
     public void setReturnDate(Date returnDate) {
+        setReturnDate(returnDate == null ? NOT_RETURNED : returnDate.getTime());
+    }
+
+    public void setReturnDate(long returnDate) {
         this.returnDate = returnDate;
         this.fineAmount = calculateFine();
     }
 
     // Calculate fine.
     public double calculateFine() {
-        if (returnDate == null || returnDate.before(dueDate)) {
+        if (returnDate == NOT_RETURNED) {
             return 0.0;
         }
+        return fineAsOf(returnDate);
+    }
 
-        // Calculate the number of overdue days.
-        long overdueDays = (returnDate.getTime() - dueDate.getTime()) / (1000 * 60 * 60 * 24);
-        double baseFine = 1.0; // The basic fine per day is 1 yuan.
-        if (book.getBookType() == BookType.RARE) {
-            baseFine = 5.0;  // For rare books, the fine is 5 yuan per day.
-        } else if (book.getBookType() == BookType.JOURNAL) {
-            baseFine = 2.0;  // For periodicals, the fine is 2 yuan per day.
-        }
+    // Fine the loan has run up by the given time, whether or not it has been returned yet.
+    public double accruedFine(long asOf) {
+        return fineAsOf(returnDate == NOT_RETURNED ? asOf : Math.min(returnDate, asOf));
+    }
 
-        // Add more fine conditions.
-        if (user.getAccountStatus() == AccountStatus.BLACKLISTED) {
-            System.out.println("The user has been blacklisted and the fine is doubled.");
-            baseFine *= 2;
+    private double fineAsOf(long end) {
+        if (end < dueDate) {
+            return 0.0;
         }
 
-        // If the book is damaged, an additional fine is required.
-        if (book.isDamaged()) {
-            baseFine += 50.0;  // The additional fine for a damaged book is 50 yuan.
-            System.out.println("The book is damaged. An additional fine of 50 yuan is imposed.");
+        // Calculate the number of overdue days.
+        long overdueDays = LoanDates.daysBetween(dueDate, end);
+        FinePolicy policy = FinePolicy.current();
+        AccountStatus status = user.getAccountStatus();
+        boolean damaged = book.isDamaged();
+
+        if (status == AccountStatus.BLACKLISTED) {
+            double multiplier = policy.getStatusMultiplier(status);
+            LibraryLog.warn(() -> "The user has been blacklisted and the fine is "
+                    + (multiplier == 2 ? "doubled." : "multiplied by " + multiplier + "."));
         }
+        if (damaged) {
+            LibraryLog.warn(() -> "The book is damaged. An additional fine of " + yuan(policy.getDamageSurcharge()) + " yuan is imposed.");
+        }
+
+        return overdueDays * policy.dailyRate(book.getBookType(), status, damaged);
+    }
 
-        return overdueDays * baseFine;
+    private static String yuan(double amount) {
+        return amount == Math.rint(amount) ? Long.toString((long) amount) : Double.toString(amount);
+    }
+
+    // Whether the book came back after its due date.
+    public boolean isReturnedLate() {
+        return returnDate != NOT_RETURNED && returnDate > dueDate;
     }
 
     public Book getBook() {
         return book;
     }
 
+    public User getUser() {
+        return user;
+    }
+
     public double getFineAmount() {
         return fineAmount;
     }
 
     public Date getBorrowDate() {
-        return borrowDate;
+        return new Date(borrowDate);
     }
 
     public Date getReturnDate() {
-        return returnDate;
+        return returnDate == NOT_RETURNED ? null : new Date(returnDate);
     }
 
     public Date getDueDate() {
+        return new Date(dueDate);
+    }
+
+    public long getBorrowMillis() {
+        return borrowDate;
+    }
+
+    public long getDueMillis() {
         return dueDate;
     }
 
+    public boolean isReturned() {
+        return returnDate != NOT_RETURNED;
+    }
+
     public void extendDueDate(int extraDays) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(dueDate);
-        cal.add(Calendar.DAY_OF_MONTH, extraDays);
-        dueDate = cal.getTime();
-        System.out.println("The borrowing period has been extended to:" + dueDate);
+        long oldDueDate = dueDate;
+        dueDate = LoanDates.plusDays(dueDate, extraDays);
+        DueDateIndex index = dueDateIndex;
+        if (index != null) {
+            index.reschedule(this, oldDueDate);
+        }
+        CirculationJournal journal = user == null ? null : user.journal;
+        if (journal != null) {
+            journal.logRenew(this, extraDays);
+        }
+        LibraryLog.info(() -> "The borrowing period has been extended to:" + new Date(dueDate));
     }
 }
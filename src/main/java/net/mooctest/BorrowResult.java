@@ -0,0 +1,16 @@
+package net.mooctest;
+
+// Outcome of User.tryBorrow. Everything except BORROWED and RESERVED is a rejection.
+public enum BorrowResult {
+    BORROWED,
+    RESERVED,             // no copy was left, so the user joined the reservation queue
+    BLACKLISTED,
+    ACCOUNT_FROZEN,
+    LIMIT_REACHED,
+    FINES_TOO_HIGH,       // the account has been frozen as well
+    BOOK_UNAVAILABLE,
+    LOW_CREDIT,
+    RARE_BOOK_RESTRICTED,
+    INVALID_OPERATION,    // borrowBook refused with an InvalidOperationException
+    FAILED                // borrowBook threw an exception no other code covers
+}
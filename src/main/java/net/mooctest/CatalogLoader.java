@@ -0,0 +1,65 @@
+package net.mooctest;
+
+import java.io.BufferedReader;
+import java.util.stream.Stream;
+
+// Reads catalog rows in tab-separated form: title, author, isbn, book type, total copies.
+// Blank lines and lines starting with '#' are ignored.
+class CatalogLoader {
+    private static final char SEPARATOR = '\t';
+    private static final int FIELD_COUNT = 5;
+
+    // Malformed rows are logged and come through as null, which Library.importBooks counts as rejected,
+    // so one bad row does not abort the rest of the import. Titles and authors are pooled for the
+    // duration of the read; the library interns them into its own pool on import.
+    public static Stream<Book> readTsv(BufferedReader reader) {
+        StringPool pool = new StringPool();
+        return reader.lines()
+                .filter(line -> !line.isEmpty() && line.charAt(0) != '#')
+                .map(line -> parseOrNull(line, pool));
+    }
+
+    private static Book parseOrNull(String line, StringPool pool) {
+        try {
+            return parseLine(line, pool);
+        } catch (IllegalArgumentException e) {
+            LibraryLog.warn(e::getMessage);
+            return null;
+        }
+    }
+
+    public static Book parseLine(String line) {
+        return parseLine(line, null);
+    }
+
+    // Title and author come from the pool if one is given, and are plain substrings otherwise.
+    public static Book parseLine(String line, StringPool pool) {
+        // Split by hand to avoid compiling a regex for every row. Title and author are interned
+        // straight from the line, so repeated values never become separate strings.
+        int[] bounds = new int[FIELD_COUNT + 1]; // field i is line[bounds[i], bounds[i + 1] - 1)
+        for (int i = 1; i < FIELD_COUNT; i++) {
+            int end = line.indexOf(SEPARATOR, bounds[i - 1]);
+            if (end < 0) {
+                throw new IllegalArgumentException("Malformed catalog row: " + line);
+            }
+            bounds[i] = end + 1;
+        }
+        bounds[FIELD_COUNT] = line.length() + 1;
+
+        BookType bookType;
+        int totalCopies;
+        try {
+            bookType = BookType.valueOf(field(line, bounds, 3).trim());
+            totalCopies = Integer.parseInt(field(line, bounds, 4).trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed catalog row: " + line, e);
+        }
+        String title = pool == null ? field(line, bounds, 0) : pool.canonical(line, bounds[0], bounds[1] - 1);
+        String author = pool == null ? field(line, bounds, 1) : pool.canonical(line, bounds[1], bounds[2] - 1);
+        return new Book(title, author, field(line, bounds, 2), bookType, totalCopies);
+    }
+
+    private static String field(String line, int[] bounds, int index) {
+        return line.substring(bounds[index], bounds[index + 1] - 1);
+    }
+}
@@ -0,0 +1,408 @@
+package net.mooctest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index over book titles and authors. Text is split into lower-case runs of letters and
+// digits; each Han character is a token of its own. Every query token must match the book, exactly
+// (3 points), as a prefix of an indexed token (2), or, if neither finds anything, within a small edit
+// distance (1). Results are ranked by points, then by available copies, so books on the shelf come
+// before ones that are all out.
+//
+// Records of a mapped catalog are documents 0 to size - 1, identified by record index; heap books
+// follow. Ranking reads the available copies of a record from the catalog, so only the books
+// returned are materialized. Books are added incrementally; later title changes are not re-indexed.
+class CatalogSearchIndex {
+    private static final int EXACT = 3;
+    private static final int PREFIX = 2;
+    private static final int FUZZY = 1;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MAX_EXPANSIONS = 64; // indexed tokens tried per prefix or fuzzy query token
+
+    private final MappedCatalog catalog;                         // null if every book is on the heap
+    private final int catalogDocs;                               // ids below this are catalog records
+    private final List<Book> books = new ArrayList<>();          // document id - catalogDocs -> book
+    private int indexedRecords;
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public CatalogSearchIndex(MappedCatalog catalog) {
+        this.catalog = catalog;
+        this.catalogDocs = catalog == null ? 0 : catalog.size();
+    }
+
+    public void add(Book book) {
+        lock.writeLock().lock();
+        try {
+            addTerms(catalogDocs + books.size(), book.getTitle(), book.getAuthor());
+            books.add(book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Index catalog record 'record' from its title and author, without materializing the book.
+    public void addRecord(int record, String title, String author) {
+        if (record < 0 || record >= catalogDocs) {
+            throw new IndexOutOfBoundsException("Record: " + record + ", Size: " + catalogDocs);
+        }
+        lock.writeLock().lock();
+        try {
+            addTerms(record, title, author);
+            indexedRecords++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addTerms(int doc, String title, String author) {
+        for (String token : tokenize(title)) {
+            terms.computeIfAbsent(token, k -> new Postings()).add(doc);
+        }
+        for (String token : tokenize(author)) {
+            terms.computeIfAbsent(token, k -> new Postings()).add(doc);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexedRecords + books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Books matching every token of the query, best first. Returns at most 'limit' books.
+    public List<Book> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int[] best;
+        Book[] resolved;
+        lock.readLock().lock();
+        try {
+            ScoreMap scores = match(tokens.get(0));
+            for (int i = 1; i < tokens.size() && scores.size > 0; i++) {
+                scores = scores.intersect(match(tokens.get(i)));
+            }
+            TopHits top = new TopHits(Math.min(limit, scores.size));
+            for (int slot = 0; slot < scores.docs.length; slot++) {
+                int doc = scores.docs[slot];
+                if (doc != ScoreMap.FREE) {
+                    int available = doc < catalogDocs ? catalog.availableAt(doc) : books.get(doc - catalogDocs).getAvailableCopies();
+                    top.offer(doc, scores.points[slot], available);
+                }
+            }
+            best = top.drain();
+            resolved = new Book[best.length];
+            for (int i = 0; i < best.length; i++) {
+                if (best[i] >= catalogDocs) {
+                    resolved[i] = books.get(best[i] - catalogDocs);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Catalog records are materialized outside the lock, and only the ones returned.
+        for (int i = 0; i < best.length; i++) {
+            if (resolved[i] == null) {
+                resolved[i] = catalog.get(best[i]);
+            }
+        }
+        return Arrays.asList(resolved);
+    }
+
+    // Documents matching one query token, with the best score the token reaches in each. Callers hold the read lock.
+    private ScoreMap match(String token) {
+        ScoreMap docs = new ScoreMap(16);
+        Postings exact = terms.get(token);
+        if (exact != null) {
+            exact.scoreInto(docs, EXACT);
+        }
+        if (token.length() >= MIN_PREFIX_LENGTH) {
+            int expanded = 0;
+            for (Map.Entry<String, Postings> entry : terms.tailMap(token, false).entrySet()) {
+                if (!entry.getKey().startsWith(token) || expanded++ == MAX_EXPANSIONS) {
+                    break;
+                }
+                entry.getValue().scoreInto(docs, PREFIX);
+            }
+        }
+        if (docs.size == 0 && token.length() >= MIN_FUZZY_LENGTH) {
+            // Typos are assumed to spare the first character, which keeps the scan to one slice of the terms.
+            int maxEdits = token.length() >= 8 ? 2 : 1;
+            String first = token.substring(0, Character.charCount(token.codePointAt(0)));
+            int[][] rows = new int[2][token.length() + maxEdits + 1];
+            int expanded = 0;
+            for (Map.Entry<String, Postings> entry : terms.subMap(first, true, first + Character.MAX_VALUE, false).entrySet()) {
+                String term = entry.getKey();
+                if (Math.abs(term.length() - token.length()) <= maxEdits && withinEdits(token, term, maxEdits, rows)) {
+                    entry.getValue().scoreInto(docs, FUZZY);
+                    if (++expanded == MAX_EXPANSIONS) {
+                        break;
+                    }
+                }
+            }
+        }
+        return docs;
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                flush(current, tokens);
+                tokens.add(new String(Character.toChars(c)));
+            } else if (Character.isLetterOrDigit(c)) {
+                current.appendCodePoint(Character.toLowerCase(c));
+            } else {
+                flush(current, tokens);
+            }
+        }
+        flush(current, tokens);
+        return tokens;
+    }
+
+    private static void flush(StringBuilder current, List<String> tokens) {
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    // Levenshtein distance of at most maxEdits, computed row by row and abandoned once every cell of a
+    // row exceeds it. 'rows' holds two scratch rows of at least b.length() + 1 cells.
+    static boolean withinEdits(String a, String b, int maxEdits, int[][] rows) {
+        int[] previous = rows[0];
+        int[] row = rows[1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            row[0] = i;
+            int best = row[0];
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = c == b.charAt(j - 1) ? 0 : 1;
+                row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                best = Math.min(best, row[j]);
+            }
+            if (best > maxEdits) {
+                return false;
+            }
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        return previous[b.length()] <= maxEdits;
+    }
+
+    // Document ids of one token, in the order they were indexed.
+    private static final class Postings {
+        private int[] docs = new int[2];
+        private int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return; // the token occurs twice in the same book
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        void scoreInto(ScoreMap scores, int score) {
+            for (int i = 0; i < size; i++) {
+                scores.max(docs[i], score);
+            }
+        }
+    }
+
+    // Open-addressed map from document id to points, so scoring a query does not box every match.
+    private static final class ScoreMap {
+        static final int FREE = -1;
+
+        int[] docs;
+        int[] points;
+        int size;
+
+        ScoreMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            docs = new int[capacity];
+            points = new int[capacity];
+            Arrays.fill(docs, FREE);
+        }
+
+        // Keep the higher of the current points of 'doc' and 'score'.
+        void max(int doc, int score) {
+            int slot = find(doc);
+            if (docs[slot] == doc) {
+                points[slot] = Math.max(points[slot], score);
+                return;
+            }
+            docs[slot] = doc;
+            points[slot] = score;
+            if (++size * 2 > docs.length) {
+                grow();
+            }
+        }
+
+        int get(int doc) {
+            int slot = find(doc);
+            return docs[slot] == doc ? points[slot] : -1;
+        }
+
+        // Documents in both maps, with their points added up.
+        ScoreMap intersect(ScoreMap other) {
+            ScoreMap small = size <= other.size ? this : other;
+            ScoreMap large = small == this ? other : this;
+            ScoreMap both = new ScoreMap(small.size);
+            for (int slot = 0; slot < small.docs.length; slot++) {
+                int doc = small.docs[slot];
+                if (doc != FREE) {
+                    int more = large.get(doc);
+                    if (more >= 0) {
+                        both.max(doc, small.points[slot] + more);
+                    }
+                }
+            }
+            return both;
+        }
+
+        private int find(int doc) {
+            int mask = docs.length - 1;
+            int slot = (doc * 0x9E3779B9) >>> 7 & mask;
+            while (docs[slot] != FREE && docs[slot] != doc) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldDocs = docs;
+            int[] oldPoints = points;
+            docs = new int[oldDocs.length * 2];
+            points = new int[oldDocs.length * 2];
+            Arrays.fill(docs, FREE);
+            for (int slot = 0; slot < oldDocs.length; slot++) {
+                if (oldDocs[slot] != FREE) {
+                    int target = find(oldDocs[slot]);
+                    docs[target] = oldDocs[slot];
+                    points[target] = oldPoints[slot];
+                }
+            }
+        }
+    }
+
+    // The best documents offered so far, at most 'capacity' of them: more points first, then more
+    // available copies, then the lower document id. The worst one kept is the root of a binary heap.
+    private static final class TopHits {
+        final int[] docs;
+        final int[] points;
+        final int[] available;
+        int size;
+
+        TopHits(int capacity) {
+            docs = new int[capacity];
+            points = new int[capacity];
+            available = new int[capacity];
+        }
+
+        void offer(int doc, int score, int copies) {
+            if (size < docs.length) {
+                set(size, doc, score, copies);
+                siftUp(size++);
+            } else if (size > 0 && ranksBefore(score, copies, doc, points[0], available[0], docs[0])) {
+                set(0, doc, score, copies);
+                siftDown(0);
+            }
+        }
+
+        // The kept documents, best first. Empties the heap.
+        int[] drain() {
+            int[] best = new int[size];
+            while (size > 0) {
+                best[size - 1] = docs[0];
+                size--;
+                set(0, docs[size], points[size], available[size]);
+                siftDown(0);
+            }
+            return best;
+        }
+
+        private static boolean ranksBefore(int score, int copies, int doc, int otherScore, int otherCopies, int otherDoc) {
+            if (score != otherScore) {
+                return score > otherScore;
+            }
+            if (copies != otherCopies) {
+                return copies > otherCopies;
+            }
+            return doc < otherDoc;
+        }
+
+        // Whether slot i holds a worse document than slot j, so it belongs nearer the root.
+        private boolean worse(int i, int j) {
+            return ranksBefore(points[j], available[j], docs[j], points[i], available[i], docs[i]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && worse(child + 1, child)) {
+                    child++;
+                }
+                if (!worse(child, i)) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void set(int i, int doc, int score, int copies) {
+            docs[i] = doc;
+            points[i] = score;
+            available[i] = copies;
+        }
+
+        private void swap(int i, int j) {
+            int doc = docs[i];
+            int score = points[i];
+            int copies = available[i];
+            set(i, docs[j], points[j], available[j]);
+            set(j, doc, score, copies);
+        }
+    }
+}
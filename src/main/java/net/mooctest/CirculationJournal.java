@@ -0,0 +1,491 @@
+package net.mooctest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead log of circulation changes. Each entry is framed as
+// [payload length][CRC32 of payload][payload] after a header holding the journal's generation.
+// A log call returns once its entry is on disk. Writers that arrive while a force is running are
+// collected and written by the next caller with a single force (group commit), so concurrent
+// borrowers share fsyncs instead of queueing for one each.
+//
+// Entries that change a user also carry the user's state afterwards (see LibrarySnapshot.writeUserState),
+// so replay restores it without re-running the lending rules.
+class CirculationJournal implements Closeable {
+    private static final int MAGIC = 0x4C4A524E; // "LJRN"
+    private static final int HEADER_SIZE = 12;   // magic + generation
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int MAX_ENTRY_SIZE = 1 << 20;
+    private static final JournalEventType[] EVENT_TYPES = JournalEventType.values();
+
+    private final FileChannel channel;
+    private long generation;
+
+    // Guarded by this.
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appendedSeq;  // last entry handed to append
+    private long durableSeq;   // last entry known to be forced to disk
+    private boolean flushing;  // a caller is writing and forcing a batch outside the lock
+    private IOException failure;
+    private long syncCount;
+
+    private CirculationJournal(FileChannel channel, long generation) {
+        this.channel = channel;
+        this.generation = generation;
+    }
+
+    // Open the journal file, creating it if needed. A torn or corrupt tail left by a crash is cut off.
+    public static CirculationJournal open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                CirculationJournal journal = new CirculationJournal(channel, 0);
+                journal.reset(0);
+                return journal;
+            }
+            DataInputStream in = reader(channel);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a circulation journal: " + file);
+            }
+            CirculationJournal journal = new CirculationJournal(channel, in.readLong());
+            long valid = HEADER_SIZE + forEachEntry(in, payload -> { });
+            long size = channel.size();
+            if (valid < size) {
+                LibraryLog.warn(() -> "Discarding " + (size - valid) + " bytes of incomplete journal entries.");
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            channel.position(valid);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Generation of the snapshot this journal continues from.
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    // Number of forces so far. With group commit this is usually lower than the number of entries.
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    // Apply every entry to the library, in order. Call before the journal is attached to the library,
+    // so replayed changes are not journaled again. Returns the number of entries applied.
+    public int replay(Library library) throws IOException {
+        int[] applied = new int[1];
+        synchronized (this) {
+            channel.position(0);
+            DataInputStream in = reader(channel);
+            in.skipBytes(HEADER_SIZE);
+            forEachEntry(in, payload -> {
+                apply(library, new DataInputStream(new ByteArrayInputStream(payload)));
+                applied[0]++;
+            });
+            channel.position(channel.size());
+        }
+        for (User user : library.getUsers()) {
+            synchronized (user.lock()) {
+                user.reprioritizeReservations();
+            }
+        }
+        return applied[0];
+    }
+
+    // Drop all entries and start the given generation. Entries still being logged may be lost, so
+    // callers make sure no circulation is in progress.
+    public void reset(long newGeneration) throws IOException {
+        synchronized (this) {
+            awaitIdle();
+            pending.clear();
+            durableSeq = appendedSeq;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(newGeneration);
+            header.flip();
+            channel.truncate(0);
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+            generation = newGeneration;
+        }
+    }
+
+    // Run 'snapshot' and then start the given generation, holding back new entries until the journal
+    // has been reset, so nothing logged after the snapshot is dropped with the old entries. Entries
+    // whose change the snapshot already holds are dropped. Callers hold every user lock, since user
+    // operations log while holding theirs.
+    public void checkpoint(long newGeneration, SnapshotWriter snapshot) throws IOException {
+        synchronized (this) {
+            awaitIdle();
+            snapshot.write();
+            reset(newGeneration);
+        }
+    }
+
+    public void logAddBook(Book book) {
+        log(JournalEventType.ADD_BOOK, null, out -> writeBook(out, book));
+    }
+
+    // Journal a batch of new books with a single force.
+    public void logAddBooks(Collection<Book> books) {
+        try {
+            long seq = 0;
+            for (Book book : books) {
+                seq = append(encode(JournalEventType.ADD_BOOK, null, out -> writeBook(out, book)));
+            }
+            sync(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the circulation journal.", e);
+        }
+    }
+
+    public void logRegisterUser(User user) {
+        log(JournalEventType.REGISTER_USER, user, out -> {
+            LibrarySnapshot.writeString(out, user.getName());
+            out.writeByte(user.userType.ordinal());
+            LibrarySnapshot.writeString(out, user.getEmail());
+            LibrarySnapshot.writeString(out, user.getPhoneNumber());
+        });
+    }
+
+    public void logBorrow(BorrowRecord record) {
+        log(JournalEventType.BORROW, record.getUser(), out -> {
+            LibrarySnapshot.writeString(out, record.getBook().getIsbn());
+            out.writeLong(record.getBorrowMillis());
+            out.writeLong(record.getDueMillis());
+            LibrarySnapshot.writeUserState(out, record.getUser());
+        });
+    }
+
+    public void logReturn(BorrowRecord record) {
+        log(JournalEventType.RETURN, record.getUser(), out -> {
+            LibrarySnapshot.writeString(out, record.getBook().getIsbn());
+            LibrarySnapshot.writeUserState(out, record.getUser());
+        });
+    }
+
+    public void logReserve(Reservation reservation) {
+        log(JournalEventType.RESERVE, reservation.getUser(), out -> {
+            LibrarySnapshot.writeString(out, reservation.getBook().getIsbn());
+            out.writeLong(reservation.getReservationMillis());
+        });
+    }
+
+    public void logCancel(User user, Book book) {
+        log(JournalEventType.CANCEL, user, out -> LibrarySnapshot.writeString(out, book.getIsbn()));
+    }
+
+    public void logDequeue(Reservation reservation) {
+        log(JournalEventType.DEQUEUE, reservation.getUser(),
+                out -> LibrarySnapshot.writeString(out, reservation.getBook().getIsbn()));
+    }
+
+    public void logRenew(BorrowRecord record, int extraDays) {
+        log(JournalEventType.RENEW, record.getUser(), out -> {
+            LibrarySnapshot.writeString(out, record.getBook().getIsbn());
+            out.writeInt(extraDays);
+        });
+    }
+
+    public void logFinePayment(User user) {
+        log(JournalEventType.PAY_FINE, user, out -> LibrarySnapshot.writeUserState(out, user));
+    }
+
+    // The user's fines, credit score or account status changed outside of borrowing and returning.
+    public void logStatusChange(User user) {
+        log(JournalEventType.STATUS_CHANGE, user, out -> LibrarySnapshot.writeUserState(out, user));
+    }
+
+    // Force everything logged so far and close the file.
+    @Override
+    public void close() throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = appendedSeq;
+        }
+        try {
+            sync(seq);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeBook(DataOutputStream out, Book book) throws IOException {
+        LibrarySnapshot.writeString(out, book.getIsbn());
+        LibrarySnapshot.writeString(out, book.getTitle());
+        LibrarySnapshot.writeString(out, book.getAuthor());
+        out.writeByte(book.getBookType().ordinal());
+        out.writeInt(book.getTotalCopies());
+    }
+
+    interface SnapshotWriter {
+        void write() throws IOException;
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Encode, append and wait for one entry. A failed write leaves the journal unusable.
+    private void log(JournalEventType type, User user, EntryWriter body) {
+        try {
+            sync(append(encode(type, user, body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the circulation journal.", e);
+        }
+    }
+
+    // Frame an entry: type, then the user ID for user entries, then the body.
+    private static ByteBuffer encode(JournalEventType type, User user, EntryWriter body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type.ordinal());
+        if (user != null) {
+            LibrarySnapshot.writeString(out, user.getUserId());
+        }
+        body.write(out);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    private synchronized long append(ByteBuffer frame) {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("The journal is closed.");
+        }
+        pending.add(frame);
+        return ++appendedSeq;
+    }
+
+    // Wait until entry 'seq' is on disk. The first caller to find no force running writes every
+    // pending entry and forces once; the others wait for it and return if it covered them.
+    private void sync(long seq) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                List<ByteBuffer> batch;
+                long upTo;
+                synchronized (this) {
+                    while (flushing && durableSeq < seq) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (durableSeq >= seq) {
+                        return;
+                    }
+                    if (failure != null) {
+                        throw new IOException("The journal failed on an earlier write.", failure);
+                    }
+                    flushing = true;
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    upTo = appendedSeq;
+                }
+                IOException error = null;
+                try {
+                    write(batch);
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    flushing = false;
+                    if (error == null) {
+                        durableSeq = upTo;
+                        syncCount++;
+                    } else {
+                        failure = error;
+                    }
+                    notifyAll();
+                }
+                if (error != null) {
+                    throw error;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void write(List<ByteBuffer> batch) throws IOException {
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    // Callers hold this.
+    private void awaitIdle() {
+        boolean interrupted = false;
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static DataInputStream reader(FileChannel channel) {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+    }
+
+    private interface EntryHandler {
+        void accept(byte[] payload) throws IOException;
+    }
+
+    // Read entries until the end of the input or the first incomplete or corrupt one.
+    // Returns the number of bytes of valid entries.
+    private static long forEachEntry(DataInputStream in, EntryHandler handler) throws IOException {
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_ENTRY_SIZE) {
+                    return valid;
+                }
+                checksum = in.readInt();
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return valid;
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                return valid;
+            }
+            handler.accept(payload);
+            valid += FRAME_HEADER_SIZE + payload.length;
+        }
+    }
+
+    private static void apply(Library library, DataInput in) throws IOException {
+        JournalEventType type = EVENT_TYPES[in.readUnsignedByte()];
+        if (type == JournalEventType.ADD_BOOK) {
+            String isbn = LibrarySnapshot.readString(in);
+            String title = LibrarySnapshot.readString(in);
+            String author = LibrarySnapshot.readString(in);
+            BookType bookType = LibrarySnapshot.BOOK_TYPES[in.readUnsignedByte()];
+            library.addBook(new Book(title, author, isbn, bookType, in.readInt()));
+            return;
+        }
+        String userId = LibrarySnapshot.readString(in);
+        if (type == JournalEventType.REGISTER_USER) {
+            String name = LibrarySnapshot.readString(in);
+            User user = LibrarySnapshot.newUser(LibrarySnapshot.USER_TYPES[in.readUnsignedByte()], name, userId);
+            user.setEmail(LibrarySnapshot.readString(in));
+            user.setPhoneNumber(LibrarySnapshot.readString(in));
+            library.registerUser(user);
+            return;
+        }
+        User user = library.findUserById(userId);
+        if (user == null) {
+            throw new IOException("Journal entry " + type + " refers to unknown user " + userId + ".");
+        }
+        if (type == JournalEventType.PAY_FINE || type == JournalEventType.STATUS_CHANGE) {
+            LibrarySnapshot.readUserState(in, user);
+            return;
+        }
+        String isbn = LibrarySnapshot.readString(in);
+        Book book = library.findBookByIsbn(isbn);
+        if (book == null) {
+            throw new IOException("Journal entry " + type + " refers to unknown book " + isbn + ".");
+        }
+        switch (type) {
+            case BORROW: {
+                long borrowDate = in.readLong();
+                long dueDate = in.readLong();
+                user.borrowedBooks.add(new BorrowRecord(book, user, borrowDate, dueDate));
+                // Copies are adjusted without bounds: entries of different users may be ordered
+                // differently than their copy updates, but the final count is the same.
+                book.setAvailableCopies(book.getAvailableCopies() - 1);
+                LibrarySnapshot.readUserState(in, user);
+                break;
+            }
+            case RETURN: {
+                BorrowRecord record = user.findBorrowRecord(book);
+                if (record == null) {
+                    throw new IOException("Journal returns book " + isbn + " that user " + userId + " has not borrowed.");
+                }
+                user.borrowedBooks.remove(record);
+                book.setAvailableCopies(book.getAvailableCopies() + 1);
+                LibrarySnapshot.readUserState(in, user);
+                break;
+            }
+            case RESERVE: {
+                Reservation reservation = new Reservation(book, user, in.readLong());
+                book.addReservation(reservation);
+                user.reservations.add(reservation);
+                break;
+            }
+            case CANCEL: {
+                Reservation reservation = user.findReservation(book);
+                if (reservation != null) {
+                    book.removeReservation(reservation);
+                    user.reservations.remove(reservation);
+                }
+                break;
+            }
+            case DEQUEUE:
+                for (Reservation reservation : book.getReservationQueue()) {
+                    if (reservation.getUser() == user) {
+                        book.getReservationQueue().remove(reservation);
+                        user.reservations.remove(reservation);
+                        break;
+                    }
+                }
+                break;
+            case RENEW: {
+                BorrowRecord record = user.findBorrowRecord(book);
+                if (record != null) {
+                    record.extendDueDate(in.readInt());
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unexpected journal entry " + type + ".");
+        }
+    }
+}
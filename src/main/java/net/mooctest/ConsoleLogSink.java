@@ -0,0 +1,25 @@
+package net.mooctest;
+
+// Writes messages at or above a minimum level to standard output.
+class ConsoleLogSink implements LogSink {
+    private final LogLevel minLevel;
+
+    public ConsoleLogSink() {
+        this(LogLevel.DEBUG);
+    }
+
+    public ConsoleLogSink(LogLevel minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    @Override
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    @Override
+    public void log(LogLevel level, String message) {
+        // Look up System.out on every call so redirected streams are honored.
+        System.out.println(message);
+    }
+}
@@ -8,9 +8,11 @@ class CreditRepairService {
         if (payment < 10) {
             throw new InvalidOperationException("The minimum payment amount is 10 yuan.");
         }
-        user.addScore((int) payment / 10);  // For every 10 yuan paid, 1 credit point is restored.
-        if (user.getCreditScore() >= 60) {
-            user.setAccountStatus(AccountStatus.ACTIVE);  // Restore account status.
+        synchronized (user.lock()) {
+            user.addScore((int) payment / 10);  // For every 10 yuan paid, 1 credit point is restored.
+            if (user.getCreditScore() >= 60) {
+                user.setAccountStatus(AccountStatus.ACTIVE);  // Restore account status.
+            }
         }
     }
 }
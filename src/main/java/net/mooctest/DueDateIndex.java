@@ -0,0 +1,97 @@
+package net.mooctest;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Active loans bucketed by the calendar day they are due, so "due on day D" and "overdue by day D"
+// cost time proportional to the answer rather than to the number of loans. Loans enter and leave
+// through the users' LoanLists and move buckets when BorrowRecord.extendDueDate is called.
+class DueDateIndex {
+    private final ZoneId zone;
+    private final TreeMap<Long, Set<BorrowRecord>> buckets = new TreeMap<>();
+    private int size;
+
+    public DueDateIndex(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public long epochDay(long epochMilli) {
+        return LoanDates.epochDay(epochMilli, zone);
+    }
+
+    public synchronized void add(BorrowRecord record) {
+        if (record.dueDateIndex == this) {
+            return;
+        }
+        record.dueDateIndex = this;
+        bucket(epochDay(record.getDueMillis())).add(record);
+        size++;
+    }
+
+    public synchronized void remove(BorrowRecord record) {
+        if (record.dueDateIndex != this) {
+            return;
+        }
+        record.dueDateIndex = null;
+        unbucket(record, epochDay(record.getDueMillis()));
+        size--;
+    }
+
+    // Move a loan whose due date changed from oldDueMillis to its current due date.
+    public synchronized void reschedule(BorrowRecord record, long oldDueMillis) {
+        if (record.dueDateIndex != this) {
+            return;
+        }
+        long oldDay = epochDay(oldDueMillis);
+        long newDay = epochDay(record.getDueMillis());
+        if (oldDay != newDay) {
+            unbucket(record, oldDay);
+            bucket(newDay).add(record);
+        }
+    }
+
+    // Loans due on the given day.
+    public synchronized List<BorrowRecord> dueOn(long epochDay) {
+        Set<BorrowRecord> bucket = buckets.get(epochDay);
+        return bucket == null ? Collections.<BorrowRecord>emptyList() : new ArrayList<>(bucket);
+    }
+
+    // Loans due on any day from 'fromDay' to 'toDay', both inclusive, earliest first.
+    public synchronized List<BorrowRecord> dueBetween(long fromDay, long toDay) {
+        List<BorrowRecord> result = new ArrayList<>();
+        for (Set<BorrowRecord> bucket : buckets.subMap(fromDay, true, toDay, true).values()) {
+            result.addAll(bucket);
+        }
+        return result;
+    }
+
+    // Loans that are past due on the given day, i.e. were due on an earlier day.
+    public synchronized List<BorrowRecord> overdueOn(long epochDay) {
+        List<BorrowRecord> result = new ArrayList<>();
+        for (Set<BorrowRecord> bucket : buckets.headMap(epochDay, false).values()) {
+            result.addAll(bucket);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private Set<BorrowRecord> bucket(long epochDay) {
+        return buckets.computeIfAbsent(epochDay, day -> Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private void unbucket(BorrowRecord record, long epochDay) {
+        Set<BorrowRecord> bucket = buckets.get(epochDay);
+        if (bucket != null && bucket.remove(record) && bucket.isEmpty()) {
+            buckets.remove(epochDay);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.mooctest;
+
+// Result of a bulk catalog import.
+class ImportSummary {
+    private final int imported;
+    private final int duplicates;
+    private final int rejected;
+
+    public ImportSummary(int imported, int duplicates, int rejected) {
+        this.imported = imported;
+        this.duplicates = duplicates;
+        this.rejected = rejected;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    // Rows that could not be parsed, or have no ISBN to index them by, are skipped.
+    public int getRejected() {
+        return rejected;
+    }
+
+    public int getTotal() {
+        return imported + duplicates + rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "imported=" + imported + ", duplicates=" + duplicates + ", rejected=" + rejected;
+    }
+}
@@ -0,0 +1,36 @@
+package net.mooctest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps delivered batches in memory instead of sending them. Stand-in for a real gateway in tests.
+class InMemoryBatchChannel implements BatchChannel {
+    private final List<List<Notification>> batches = new ArrayList<>();
+    private volatile boolean failing;
+
+    @Override
+    public synchronized void deliver(List<Notification> batch) throws Exception {
+        if (failing) {
+            throw new Exception("The channel is unavailable.");
+        }
+        batches.add(new ArrayList<>(batch));
+    }
+
+    // Make every following delivery fail, to exercise fallback.
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    public synchronized List<List<Notification>> getBatches() {
+        return Collections.unmodifiableList(new ArrayList<>(batches));
+    }
+
+    public synchronized int getDelivered() {
+        int delivered = 0;
+        for (List<Notification> batch : batches) {
+            delivered += batch.size();
+        }
+        return delivered;
+    }
+}
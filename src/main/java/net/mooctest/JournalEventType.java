@@ -0,0 +1,15 @@
+package net.mooctest;
+
+// Kinds of entries in the circulation journal. The ordinal is written to disk, so new kinds go at the end.
+public enum JournalEventType {
+    ADD_BOOK,
+    REGISTER_USER,
+    BORROW,
+    RETURN,
+    RESERVE,
+    CANCEL,
+    DEQUEUE,       // a reservation was taken off the book's queue to be fulfilled
+    RENEW,
+    PAY_FINE,
+    STATUS_CHANGE
+}
@@ -2,97 +2,381 @@ package net.mooctest;
 
 import net.mooctest.InvalidOperationException;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 class Library {
-    private List<Book> books;
-    private List<User> users;
+    // Catalog and member indexes, keyed by ISBN and user ID. Insertion order is kept for listing.
+    private Map<String, Book> books;
+    private Map<String, User> users;
     private NotificationService notificationService;
+    private NotificationDispatcher notificationDispatcher; // null: notifications are sent inline
+    private NotificationBatcher notificationBatcher;       // if set, takes precedence over the dispatcher
     private AutoRenewalService autoRenewalService;
     private CreditRepairService creditRepairService;
     private InventoryService inventoryService;
+    private OverdueSweepService overdueSweepService;
+    private DueDateIndex dueDateIndex; // active loans of registered users by due day
+    private volatile CirculationJournal journal; // null unless opened from a LibraryStore
+    private final MappedCatalog catalog; // books kept off-heap; null if every book is in 'books'
+    private final StringPool strings; // titles and authors of this library's books, held once each
+    private final CatalogSearchIndex searchIndex;
+    private boolean catalogIndexed; // mapped catalog books are indexed on the first search
 
     public Library() {
-        books = new ArrayList<>();
-        users = new ArrayList<>();
+        this(null);
+    }
+
+    // A library whose catalog is served from a memory-mapped file. Catalog books are materialized
+    // when first looked up; books added later are kept on the heap as usual.
+    public Library(MappedCatalog catalog) {
+        this.catalog = catalog;
+        strings = catalog != null ? catalog.getStrings() : new StringPool();
+        searchIndex = new CatalogSearchIndex(catalog);
+        books = new LinkedHashMap<>();
+        users = new LinkedHashMap<>();
         notificationService = new NotificationService();
         autoRenewalService = new AutoRenewalService();
         creditRepairService = new CreditRepairService();
         inventoryService = new InventoryService();
+        overdueSweepService = new OverdueSweepService();
+        dueDateIndex = new DueDateIndex(LibraryClock.zone());
+    }
+
+    // Send reservation notifications in the background through the given dispatcher, or inline if null.
+    // The library does not take ownership; the caller closes the dispatcher.
+    public void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    // Queue notifications in the given batcher, which groups them per channel, or stop batching if null.
+    // The library does not take ownership; the caller closes the batcher.
+    public void setNotificationBatcher(NotificationBatcher notificationBatcher) {
+        this.notificationBatcher = notificationBatcher;
+    }
+
+    // Journal circulation changes of this library and its users, or stop journaling if null.
+    // A library with a mapped catalog keeps its copy counts in the catalog file and cannot be journaled.
+    synchronized void setJournal(CirculationJournal journal) {
+        if (journal != null && catalog != null) {
+            throw new IllegalArgumentException("A library with a mapped catalog cannot be journaled.");
+        }
+        this.journal = journal;
+        for (User user : users.values()) {
+            user.journal = journal;
+        }
     }
 
-    public void registerUser(User user) {
+    public synchronized void registerUser(User user) {
         if (user.getCreditScore() < 50) {
-            System.out.println("Credit score is too low to register a user.");
-        } else if (users.contains(user)) {
-            System.out.println("User already exists.");
+            LibraryLog.warn("Credit score is too low to register a user.");
+        } else if (users.containsKey(user.getUserId())) {
+            LibraryLog.warn("User already exists.");
         } else {
-            users.add(user);
-            System.out.println("Successfully registered user:" + user.name);
+            users.put(user.getUserId(), user);
+            user.setDueDateIndex(dueDateIndex);
+            CirculationJournal journal = this.journal;
+            if (journal != null) {
+                journal.logRegisterUser(user);
+                user.journal = journal;
+            }
+            LibraryLog.info(() -> "Successfully registered user:" + user.name);
         }
     }
 
-    public void addBook(Book book) {
-        if (books.contains(book)) {
-            System.out.println("This book already exists.");
+    public synchronized void addBook(Book book) {
+        if (books.containsKey(book.getIsbn()) || inCatalog(book.getIsbn())) {
+            LibraryLog.warn("This book already exists.");
         } else {
-            books.add(book);
-            System.out.println("Successfully added book:" + book.getTitle());
+            book.internStrings(strings);
+            books.put(book.getIsbn(), book);
+            searchIndex.add(book);
+            CirculationJournal journal = this.journal;
+            if (journal != null) {
+                journal.logAddBook(book);
+            }
+            LibraryLog.info(() -> "Successfully added book:" + book.getTitle());
+        }
+    }
+
+    // Import books in a single pass, skipping ISBNs that are already in the catalog.
+    // Null entries (rows the source could not parse) and books without an ISBN are counted as rejected.
+    // Prints one summary line instead of one line per book.
+    public ImportSummary importBooks(Stream<Book> source) {
+        return importBooks(source, 0);
+    }
+
+    // Same as importBooks(Stream), with a hint of how many books the source will produce
+    // so the catalog index can be sized once up front.
+    public synchronized ImportSummary importBooks(Stream<Book> source, int expectedSize) {
+        ensureBookCapacity(books.size() + expectedSize);
+        int[] counts = new int[3]; // imported, duplicates, rejected
+        CirculationJournal journal = this.journal;
+        List<Book> imported = journal == null ? null : new ArrayList<>();
+        source.sequential().forEach(book -> {
+            if (book == null || book.getIsbn() == null) {
+                counts[2]++;
+            } else if (!inCatalog(book.getIsbn()) && books.putIfAbsent(book.getIsbn(), book) == null) {
+                counts[0]++;
+                book.internStrings(strings);
+                searchIndex.add(book);
+                if (imported != null) {
+                    imported.add(book);
+                }
+            } else {
+                counts[1]++;
+            }
+        });
+        if (journal != null) {
+            journal.logAddBooks(imported); // one force for the whole import
+        }
+        ImportSummary summary = new ImportSummary(counts[0], counts[1], counts[2]);
+        LibraryLog.info(() -> "Catalog import finished: " + summary);
+        return summary;
+    }
+
+    private void ensureBookCapacity(int capacity) {
+        if (capacity <= books.size()) {
+            return;
+        }
+        // Rebuild with enough buckets so the import never triggers an incremental rehash.
+        Map<String, Book> resized = new LinkedHashMap<>((int) (capacity / 0.75f) + 1);
+        resized.putAll(books);
+        books = resized;
+    }
+
+    private boolean inCatalog(String isbn) {
+        return catalog != null && catalog.contains(isbn);
+    }
+
+    // Look up a book by ISBN. Returns null if the book is not in the catalog.
+    public Book findBookByIsbn(String isbn) {
+        Book book = books.get(isbn);
+        if (book == null && catalog != null) {
+            book = catalog.find(isbn);
+        }
+        return book;
+    }
+
+    // Look up a registered user by user ID. Returns null if the user is not registered.
+    public User findUserById(String userId) {
+        return users.get(userId);
+    }
+
+    // With a mapped catalog, catalog books come first in ISBN order and are materialized as iteration reaches them.
+    public Collection<Book> getBooks() {
+        if (catalog == null) {
+            return Collections.unmodifiableCollection(books.values());
+        }
+        return new AbstractCollection<Book>() {
+            @Override
+            public Iterator<Book> iterator() {
+                Iterator<Book> added = books.values().iterator();
+                return new Iterator<Book>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < catalog.size() || added.hasNext();
+                    }
+
+                    @Override
+                    public Book next() {
+                        return next < catalog.size() ? catalog.get(next++) : added.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return catalog.size() + books.size();
+            }
+        };
+    }
+
+    // Find books whose title or author matches the query; see CatalogSearchIndex. Returns at most 'limit' books.
+    public List<Book> searchBooks(String query, int limit) {
+        if (catalog != null) {
+            indexCatalog();
         }
+        return searchIndex.search(query, limit);
+    }
+
+    private synchronized void indexCatalog() {
+        if (catalogIndexed) {
+            return;
+        }
+        for (int i = 0; i < catalog.size(); i++) {
+            searchIndex.addRecord(i, catalog.titleAt(i), catalog.authorAt(i));
+        }
+        catalogIndexed = true;
+    }
+
+    // Run the action while no book or user can be added, so a checkpoint snapshot iterates a stable catalog.
+    // Books and users are only added under this library's monitor.
+    synchronized <E extends Exception> void withRegistrationsBlocked(UserLockStripes.Action<E> action) throws E {
+        action.run();
+    }
+
+    boolean hasMappedCatalog() {
+        return catalog != null;
+    }
+
+    public Collection<User> getUsers() {
+        return Collections.unmodifiableCollection(users.values());
     }
 
     public void processReservations(Book book) {
         if (!book.isAvailable()) {
-            System.out.println("The book is unavailable and cannot process reservations.");
+            LibraryLog.warn("The book is unavailable and cannot process reservations.");
             return;
         }
 
-        Reservation nextReservation = book.getReservationQueue().poll();
+        Reservation nextReservation = book.pollReservation();
         if (nextReservation != null) {
-            User user = nextReservation.getUser();
-            try {
-                user.borrowBook(book);
-                notificationService.sendNotification(user, "The book [\" + book.getTitle() + \"] you reserved is now available for borrowing.");
-            } catch (Exception e) {
-                System.out.println("An error occurred while processing the reservation:" + e.getMessage());
+            fulfill(book, nextReservation);
+        }
+    }
+
+    // Drain queued reservations for every given book, one hold per available copy, in a single call.
+    // Books are handled in parallel on the common fork-join pool; each book is drained by one task only,
+    // and borrowers are serialized by their user lock.
+    public ReservationSummary processReservations(Collection<Book> changedBooks) {
+        ReservationSummary summary = new HashSet<>(changedBooks).parallelStream()
+                .map(this::drainReservations)
+                .reduce(ReservationSummary.EMPTY, ReservationSummary::plus);
+        LibraryLog.info(() -> "Reservation batch finished: " + summary);
+        return summary;
+    }
+
+    private ReservationSummary drainReservations(Book book) {
+        if (!book.isAvailable()) {
+            LibraryLog.warn(() -> "The book is unavailable and cannot process reservations: " + book.getTitle());
+            return new ReservationSummary(0, 0, 1);
+        }
+        int fulfilled = 0;
+        int failed = 0;
+        Reservation next;
+        while (book.getAvailableCopies() > 0 && (next = book.pollReservation()) != null) {
+            if (fulfill(book, next)) {
+                fulfilled++;
+            } else {
+                failed++;
             }
         }
+        return new ReservationSummary(fulfilled, failed, 1);
+    }
+
+    // Lend the book to the holder of the reservation and notify them. Returns false if the loan was refused.
+    // Goes through borrowBook rather than tryBorrow so the log keeps the reason the user's rules gave.
+    private boolean fulfill(Book book, Reservation reservation) {
+        User user = reservation.getUser();
+        user.removeFulfilledReservation(reservation);
+        CirculationJournal journal = this.journal;
+        if (journal != null) {
+            journal.logDequeue(reservation);
+        }
+        try {
+            user.borrowBook(book);
+        } catch (Exception e) {
+            LibraryLog.warn(() -> "An error occurred while processing the reservation:" + e.getMessage());
+            return false;
+        }
+        sendNotification(user, "The book [\" + book.getTitle() + \"] you reserved is now available for borrowing.");
+        return true;
+    }
+
+    private void sendNotification(User user, String message) {
+        NotificationBatcher batcher = notificationBatcher;
+        NotificationDispatcher dispatcher = notificationDispatcher;
+        if (batcher != null) {
+            batcher.submit(user, message);
+        } else if (dispatcher != null) {
+            dispatcher.dispatch(user, message);
+        } else {
+            notificationService.sendNotification(user, message);
+        }
     }
 
     public void autoRenewBook(User user, Book book) {
         try {
             autoRenewalService.autoRenew(user, book);
-            System.out.println("Successfully automatically renewed book:" + book.getTitle());
+            LibraryLog.info(() -> "Successfully automatically renewed book:" + book.getTitle());
         } catch (Exception e) {
-            System.out.println("Automatic renewal failed:" + e.getMessage());
+            LibraryLog.warn(() -> "Automatic renewal failed:" + e.getMessage());
+        }
+    }
+
+    // Run the overdue sweep over all registered users as of the given time (epoch milliseconds), and
+    // tell the users it froze why.
+    public OverdueReport sweepOverdue(long asOf) {
+        OverdueReport report = overdueSweepService.sweep(users.values(), asOf);
+        for (String userId : report.getFrozenUserIds()) {
+            sendNotification(users.get(userId), "Your account has been frozen because your outstanding fines are too high.");
+        }
+        return report;
+    }
+
+    public DueDateIndex getDueDateIndex() {
+        return dueDateIndex;
+    }
+
+    // Remind borrowers of loans due 'daysAhead' days after the given time. Returns the number of reminders sent.
+    public int sendDueReminders(long asOf, int daysAhead) {
+        List<BorrowRecord> due = dueDateIndex.dueOn(dueDateIndex.epochDay(asOf) + daysAhead);
+        for (BorrowRecord record : due) {
+            sendNotification(record.getUser(), "The book [" + record.getBook().getTitle() + "] you borrowed is due on "
+                    + record.getDueDate() + ".");
+        }
+        return due.size();
+    }
+
+    // Renew every loan due within 'windowDays' days of the given time, as far as the renewal rules allow.
+    // Returns how many loans ended with each result.
+    public Map<RenewalResult, Integer> autoRenewDueLoans(long asOf, int windowDays) {
+        long today = dueDateIndex.epochDay(asOf);
+        RenewalResult[] results = autoRenewalService.renewAll(dueDateIndex.dueBetween(today, today + windowDays));
+        Map<RenewalResult, Integer> counts = new EnumMap<>(RenewalResult.class);
+        for (RenewalResult result : results) {
+            counts.merge(result, 1, Integer::sum);
         }
+        LibraryLog.info(() -> "Automatic renewal run finished: " + counts);
+        return counts;
     }
 
     public void repairUserCredit(User user, double payment) {
         try {
             creditRepairService.repairCredit(user, payment);
-            System.out.println("User credit repair is successful. Current credit score:" + user.getCreditScore());
+            LibraryLog.info(() -> "User credit repair is successful. Current credit score:" + user.getCreditScore());
         } catch (InvalidOperationException e) {
-            System.out.println("Credit repair failed: " + e.getMessage());
+            LibraryLog.warn(() -> "Credit repair failed: " + e.getMessage());
         }
     }
 
     public void reportLostBook(User user, Book book) {
         try {
             inventoryService.reportLost(book, user);
-            System.out.println("Book loss report is successful. Book:" + book.getTitle());
+            LibraryLog.info(() -> "Book loss report is successful. Book:" + book.getTitle());
         } catch (Exception e) {
-            System.out.println("Reporting loss failed:" + e.getMessage());
+            LibraryLog.warn(() -> "Reporting loss failed:" + e.getMessage());
         }
     }
 
     public void reportDamagedBook(User user, Book book) {
         try {
             inventoryService.reportDamaged(book, user);
-            System.out.println("Book damage report is successful. Book:" + book.getTitle());
+            LibraryLog.info(() -> "Book damage report is successful. Book:" + book.getTitle());
         } catch (Exception e) {
-            System.out.println("Reporting damage failed:" + e.getMessage());
+            LibraryLog.warn(() -> "Reporting damage failed:" + e.getMessage());
         }
     }
 }
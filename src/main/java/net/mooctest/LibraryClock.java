@@ -0,0 +1,31 @@
+package net.mooctest;
+
+import java.time.Clock;
+import java.time.ZoneId;
+
+// Library-wide source of the current time. Defaults to the system clock in the default time zone;
+// tests install a fixed Clock or a SimulatedClock to make loan dates deterministic or to replay
+// long periods quickly.
+class LibraryClock {
+    private static volatile Clock clock = Clock.systemDefaultZone();
+
+    private LibraryClock() {
+    }
+
+    public static Clock getClock() {
+        return clock;
+    }
+
+    public static void setClock(Clock newClock) {
+        clock = newClock == null ? Clock.systemDefaultZone() : newClock;
+    }
+
+    public static long millis() {
+        return clock.millis();
+    }
+
+    // Zone in which loan periods are counted in calendar days.
+    public static ZoneId zone() {
+        return clock.getZone();
+    }
+}
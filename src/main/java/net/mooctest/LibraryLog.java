@@ -0,0 +1,62 @@
+package net.mooctest;
+
+import java.util.function.Supplier;
+
+// Library-wide logging entry point. Messages are only built when the installed sink wants them,
+// so call sites that concatenate should pass a Supplier.
+class LibraryLog {
+    private static volatile LogSink sink = LogSink.NONE;
+
+    private LibraryLog() {
+    }
+
+    public static LogSink getSink() {
+        return sink;
+    }
+
+    public static void setSink(LogSink newSink) {
+        sink = newSink == null ? LogSink.NONE : newSink;
+    }
+
+    public static boolean isEnabled(LogLevel level) {
+        return sink.isEnabled(level);
+    }
+
+    public static void log(LogLevel level, String message) {
+        LogSink current = sink;
+        if (current.isEnabled(level)) {
+            current.log(level, message);
+        }
+    }
+
+    public static void log(LogLevel level, Supplier<String> message) {
+        LogSink current = sink;
+        if (current.isEnabled(level)) {
+            current.log(level, message.get());
+        }
+    }
+
+    public static void debug(String message) {
+        log(LogLevel.DEBUG, message);
+    }
+
+    public static void debug(Supplier<String> message) {
+        log(LogLevel.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public static void info(Supplier<String> message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(LogLevel.WARN, message);
+    }
+
+    public static void warn(Supplier<String> message) {
+        log(LogLevel.WARN, message);
+    }
+}
@@ -0,0 +1,218 @@
+package net.mooctest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+// Compact binary image of a library: the catalog with copy counts, and every user with their
+// account state, loans and reservations. The generation names the journal that continues from it.
+// Users are restored as RegularUser or VIPUser according to their user type.
+class LibrarySnapshot {
+    private static final int MAGIC = 0x4C534E50; // "LSNP"
+    private static final int VERSION = 1;
+
+    static final BookType[] BOOK_TYPES = BookType.values();
+    static final UserType[] USER_TYPES = UserType.values();
+    private static final AccountStatus[] STATUSES = AccountStatus.values();
+
+    private final Library library;
+    private final long generation;
+
+    // Writing a library with a mapped catalog would materialize every catalog book, and reading it back
+    // would give a plain heap library, so such libraries are refused; MappedCatalog.sync() persists them.
+    public LibrarySnapshot(Library library, long generation) {
+        if (library.hasMappedCatalog()) {
+            throw new IllegalArgumentException("A library with a mapped catalog cannot be snapshotted.");
+        }
+        this.library = library;
+        this.generation = generation;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    // Write the snapshot to a temporary file, force it and move it over the target, so a crash
+    // leaves either the old snapshot or the new one. Each user is written under their lock; the caller keeps
+    // books and users from being added meanwhile, as LibraryStore.checkpoint does.
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+
+            Collection<Book> books = library.getBooks();
+            out.writeInt(books.size());
+            for (Book book : books) {
+                writeString(out, book.getIsbn());
+                writeString(out, book.getTitle());
+                writeString(out, book.getAuthor());
+                out.writeByte(book.getBookType().ordinal());
+                out.writeInt(book.getTotalCopies());
+                out.writeInt(book.getAvailableCopies());
+                out.writeBoolean(book.isInRepair());
+                out.writeBoolean(book.isDamaged());
+            }
+
+            Collection<User> users = library.getUsers();
+            out.writeInt(users.size());
+            for (User user : users) {
+                synchronized (user.lock()) {
+                    writeUser(out, user);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static LibrarySnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a library snapshot: " + file);
+            }
+            long generation = in.readLong();
+            Library library = new Library();
+
+            int bookCount = in.readInt();
+            for (int i = 0; i < bookCount; i++) {
+                String isbn = readString(in);
+                String title = readString(in);
+                String author = readString(in);
+                Book book = new Book(title, author, isbn, BOOK_TYPES[in.readUnsignedByte()], in.readInt());
+                book.setAvailableCopies(in.readInt());
+                book.setInRepair(in.readBoolean());
+                book.setDamaged(in.readBoolean());
+                library.addBook(book);
+            }
+
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++) {
+                readUser(in, library);
+            }
+            return new LibrarySnapshot(library, generation);
+        }
+    }
+
+    private static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeByte(user.userType.ordinal());
+        writeString(out, user.getUserId());
+        writeString(out, user.getName());
+        writeString(out, user.getEmail());
+        writeString(out, user.getPhoneNumber());
+        writeUserState(out, user);
+
+        out.writeInt(user.borrowedBooks.size());
+        for (BorrowRecord record : user.borrowedBooks) {
+            writeString(out, record.getBook().getIsbn());
+            out.writeLong(record.getBorrowMillis());
+            out.writeLong(record.getDueMillis());
+            out.writeBoolean(record.isReturned());
+            if (record.isReturned()) {
+                out.writeLong(record.getReturnDate().getTime());
+            }
+        }
+
+        out.writeInt(user.reservations.size());
+        for (Reservation reservation : user.reservations) {
+            Book book = reservation.getBook();
+            writeString(out, book.getIsbn());
+            out.writeLong(reservation.getReservationMillis());
+            out.writeBoolean(book.isQueued(reservation));
+        }
+    }
+
+    private static void readUser(DataInput in, Library library) throws IOException {
+        UserType userType = USER_TYPES[in.readUnsignedByte()];
+        String userId = readString(in);
+        User user = newUser(userType, readString(in), userId);
+        user.setEmail(readString(in));
+        user.setPhoneNumber(readString(in));
+        library.registerUser(user); // before the state, as registration turns away low credit scores
+        readUserState(in, user);
+
+        int loanCount = in.readInt();
+        for (int i = 0; i < loanCount; i++) {
+            Book book = requireBook(library, readString(in));
+            BorrowRecord record = new BorrowRecord(book, user, in.readLong(), in.readLong());
+            if (in.readBoolean()) {
+                record.setReturnDate(in.readLong());
+            }
+            user.borrowedBooks.add(record);
+        }
+
+        int reservationCount = in.readInt();
+        for (int i = 0; i < reservationCount; i++) {
+            Book book = requireBook(library, readString(in));
+            Reservation reservation = new Reservation(book, user, in.readLong());
+            user.reservations.add(reservation);
+            if (in.readBoolean()) {
+                book.addReservation(reservation); // still waiting; not yet taken off the queue
+            }
+        }
+    }
+
+    private static Book requireBook(Library library, String isbn) throws IOException {
+        Book book = library.findBookByIsbn(isbn);
+        if (book == null) {
+            throw new IOException("Snapshot refers to unknown book " + isbn + ".");
+        }
+        return book;
+    }
+
+    static User newUser(UserType userType, String name, String userId) {
+        return userType == UserType.VIP ? new VIPUser(name, userId) : new RegularUser(name, userId);
+    }
+
+    // Fines, credit score, account status, late returns and whether a VIP has used their extension,
+    // as journaled after each change to a user.
+    static void writeUserState(DataOutput out, User user) throws IOException {
+        out.writeDouble(user.fines);
+        out.writeInt(user.creditScore);
+        out.writeByte(user.accountStatus.ordinal());
+        out.writeInt(user.lateReturns);
+        out.writeBoolean(user instanceof VIPUser && ((VIPUser) user).hasExtendedBorrow());
+    }
+
+    static void readUserState(DataInput in, User user) throws IOException {
+        user.fines = in.readDouble();
+        user.creditScore = in.readInt();
+        user.accountStatus = STATUSES[in.readUnsignedByte()];
+        user.lateReturns = in.readInt();
+        boolean extendedBorrow = in.readBoolean();
+        if (user instanceof VIPUser) {
+            ((VIPUser) user).setExtendedBorrow(extendedBorrow);
+        }
+    }
+
+    // Strings may be null; a flag byte comes first.
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,86 @@
+package net.mooctest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Keeps a library in a directory as a snapshot plus a journal of the circulation since the snapshot.
+// open() loads the snapshot, replays the journal and attaches the journal to the library, so later
+// changes are journaled. checkpoint() writes a new snapshot and starts an empty journal; user
+// operations, new books and users, and journal entries wait while it runs.
+//
+// The store always restores a heap library; libraries backed by a MappedCatalog are persisted by the
+// catalog file instead and are refused by LibrarySnapshot and Library.setJournal.
+//
+// The snapshot and the journal both carry a generation. A checkpoint writes the snapshot of the next
+// generation before resetting the journal, so if it crashes in between, open() sees the older journal
+// and drops it instead of applying it twice.
+class LibraryStore implements Closeable {
+    static final String SNAPSHOT_FILE = "library.snapshot";
+    static final String JOURNAL_FILE = "circulation.journal";
+
+    private final Path directory;
+    private Library library;
+    private CirculationJournal journal;
+
+    public LibraryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public synchronized Library open() throws IOException {
+        if (library != null) {
+            throw new IllegalStateException("The store is already open.");
+        }
+        Files.createDirectories(directory);
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        LibrarySnapshot snapshot = Files.exists(snapshotFile)
+                ? LibrarySnapshot.read(snapshotFile)
+                : new LibrarySnapshot(new Library(), 0);
+        CirculationJournal opened = CirculationJournal.open(directory.resolve(JOURNAL_FILE));
+        try {
+            if (opened.getGeneration() < snapshot.getGeneration()) {
+                LibraryLog.warn("The journal predates the snapshot and is discarded.");
+                opened.reset(snapshot.getGeneration());
+            } else if (opened.getGeneration() > snapshot.getGeneration()) {
+                throw new IOException("The journal is newer than the snapshot; the snapshot is missing or stale.");
+            }
+            int replayed = opened.replay(snapshot.getLibrary());
+            LibraryLog.info(() -> "Library restored: " + replayed + " journal entries replayed.");
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+        library = snapshot.getLibrary();
+        journal = opened;
+        library.setJournal(journal);
+        return library;
+    }
+
+    // The journal of the open library, or null if the store is not open.
+    public synchronized CirculationJournal getJournal() {
+        return journal;
+    }
+
+    public synchronized void checkpoint() throws IOException {
+        if (library == null) {
+            throw new IllegalStateException("The store is not open.");
+        }
+        long next = journal.getGeneration() + 1;
+        LibrarySnapshot snapshot = new LibrarySnapshot(library, next);
+        library.withRegistrationsBlocked(() -> UserLockStripes.withAllLocks(
+                () -> journal.checkpoint(next, () -> snapshot.write(directory.resolve(SNAPSHOT_FILE)))));
+    }
+
+    // Detach the journal from the library and close it. The library stays usable, without persistence.
+    @Override
+    public synchronized void close() throws IOException {
+        if (library == null) {
+            return;
+        }
+        library.setJournal(null);
+        library = null;
+        journal.close();
+        journal = null;
+    }
+}
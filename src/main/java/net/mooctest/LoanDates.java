@@ -0,0 +1,41 @@
+package net.mooctest;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneRules;
+
+// Loan date arithmetic on epoch milliseconds. Days are calendar days in the given zone, as with
+// Calendar.add(DAY_OF_MONTH), but zones without daylight saving need no objects at all.
+class LoanDates {
+    public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private LoanDates() {
+    }
+
+    public static long plusDays(long epochMilli, int days, ZoneId zone) {
+        if (zone.getRules().isFixedOffset()) {
+            return epochMilli + days * MILLIS_PER_DAY;
+        }
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), zone).plusDays(days).toInstant().toEpochMilli();
+    }
+
+    public static long plusDays(long epochMilli, int days) {
+        return plusDays(epochMilli, days, LibraryClock.zone());
+    }
+
+    // Whole days from 'from' to 'to', rounded toward zero.
+    public static long daysBetween(long from, long to) {
+        return (to - from) / MILLIS_PER_DAY;
+    }
+
+    // Calendar day of the instant in the given zone, counted from 1970-01-01.
+    public static long epochDay(long epochMilli, ZoneId zone) {
+        ZoneRules rules = zone.getRules();
+        if (rules.isFixedOffset()) {
+            long offsetMillis = rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L;
+            return Math.floorDiv(epochMilli + offsetMillis, MILLIS_PER_DAY);
+        }
+        return Instant.ofEpochMilli(epochMilli).atZone(zone).toLocalDate().toEpochDay();
+    }
+}
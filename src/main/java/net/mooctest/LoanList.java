@@ -0,0 +1,170 @@
+package net.mooctest;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// A user's active loans in borrow order, with an index by book so lookup and removal are constant time.
+// Loans can only be appended; positional access walks the list and is meant for tests and listing only.
+class LoanList extends AbstractList<BorrowRecord> {
+    private final Set<BorrowRecord> records = new LinkedHashSet<>();
+    // Oldest loan of each book. Further loans of the same book wait in 'extra' until it is removed.
+    private final Map<Book, BorrowRecord> byBook = new HashMap<>();
+    private Map<Book, ArrayDeque<BorrowRecord>> extra;
+    // Records that were already returned late when added, i.e. loan history rather than active loans.
+    private Set<BorrowRecord> returnedLate;
+    private DueDateIndex dueDateIndex; // null if the owner is not registered with a library
+
+    // Returns the oldest active loan of the book, or null if the book is not on loan.
+    public BorrowRecord find(Book book) {
+        return byBook.get(book);
+    }
+
+    // File the loans that are still out in the given due-date index, moving them out of any previous one.
+    public void setDueDateIndex(DueDateIndex index) {
+        for (BorrowRecord record : records) {
+            if (dueDateIndex != null) {
+                dueDateIndex.remove(record);
+            }
+            if (index != null && !record.isReturned()) {
+                index.add(record);
+            }
+        }
+        dueDateIndex = index;
+    }
+
+    // Number of records in the list that were already returned late when they were added.
+    public int getReturnedLate() {
+        return returnedLate == null ? 0 : returnedLate.size();
+    }
+
+    @Override
+    public boolean add(BorrowRecord record) {
+        if (!records.add(record)) {
+            return false;
+        }
+        if (record.isReturnedLate()) {
+            if (returnedLate == null) {
+                returnedLate = Collections.newSetFromMap(new IdentityHashMap<>());
+            }
+            returnedLate.add(record);
+        }
+        if (dueDateIndex != null && !record.isReturned()) {
+            dueDateIndex.add(record);
+        }
+        BorrowRecord first = byBook.putIfAbsent(record.getBook(), record);
+        if (first != null) {
+            if (extra == null) {
+                extra = new HashMap<>();
+            }
+            extra.computeIfAbsent(record.getBook(), k -> new ArrayDeque<>()).add(record);
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!records.remove(o)) {
+            return false;
+        }
+        unindex((BorrowRecord) o);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return records.contains(o);
+    }
+
+    @Override
+    public BorrowRecord get(int index) {
+        if (index < 0 || index >= records.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + records.size());
+        }
+        Iterator<BorrowRecord> it = records.iterator();
+        for (int i = 0; i < index; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public void clear() {
+        if (dueDateIndex != null) {
+            for (BorrowRecord record : records) {
+                dueDateIndex.remove(record);
+            }
+        }
+        records.clear();
+        byBook.clear();
+        extra = null;
+        returnedLate = null;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<BorrowRecord> iterator() {
+        final Iterator<BorrowRecord> it = records.iterator();
+        return new Iterator<BorrowRecord>() {
+            private BorrowRecord last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public BorrowRecord next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                it.remove();
+                unindex(last);
+                last = null;
+                modCount++;
+            }
+        };
+    }
+
+    private void unindex(BorrowRecord record) {
+        if (returnedLate != null) {
+            returnedLate.remove(record);
+        }
+        if (dueDateIndex != null) {
+            dueDateIndex.remove(record);
+        }
+        Book book = record.getBook();
+        ArrayDeque<BorrowRecord> waiting = extra == null ? null : extra.get(book);
+        if (waiting == null) {
+            byBook.remove(book);
+            return;
+        }
+        if (byBook.get(book) == record) {
+            byBook.put(book, waiting.poll());
+        } else {
+            waiting.remove(record);
+        }
+        if (waiting.isEmpty()) {
+            extra.remove(book);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package net.mooctest;
+
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN
+}
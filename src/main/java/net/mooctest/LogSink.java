@@ -0,0 +1,20 @@
+package net.mooctest;
+
+// Destination for library log messages.
+interface LogSink {
+    // Discards everything. This is the default so the circulation paths stay quiet and lock-free.
+    LogSink NONE = new LogSink() {
+        @Override
+        public boolean isEnabled(LogLevel level) {
+            return false;
+        }
+
+        @Override
+        public void log(LogLevel level, String message) {
+        }
+    };
+
+    boolean isEnabled(LogLevel level);
+
+    void log(LogLevel level, String message);
+}
@@ -0,0 +1,284 @@
+package net.mooctest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-mostly catalog kept in a memory-mapped file instead of on the heap: a header, one fixed-width
+// record per book sorted by ISBN, then a UTF-8 string arena holding ISBNs, titles and authors.
+// Opening only maps the file. A Book is materialized the first time it is looked up and the same
+// object is returned afterwards, so loans and reservations see one copy count. sync() writes the
+// copy counts and repair/damage flags of materialized books back to their records.
+//
+// Record layout (32 bytes):
+//   0 isbn offset, 4 title offset, 8 author offset (into the arena; -1 for null)
+//  12 isbn length, 14 title length, 16 author length (unsigned shorts, in bytes)
+//  18 book type, 19 flags (bit 0 in repair, bit 1 damaged)
+//  20 total copies, 24 available copies, 28 unused
+class MappedCatalog implements Closeable {
+    private static final int MAGIC = 0x4C434154; // "LCAT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;   // magic, version, count, record size, arena offset (long)
+    static final int RECORD_SIZE = 32;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int IN_REPAIR = 1;
+    private static final int DAMAGED = 2;
+    private static final BookType[] BOOK_TYPES = BookType.values();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int arenaOffset;
+    private final Map<Integer, Book> materialized = new HashMap<>(); // guarded by this
+    private final StringPool strings = new StringPool(); // titles and authors of materialized books
+
+    private MappedCatalog(FileChannel channel, MappedByteBuffer buffer, int count, int arenaOffset) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.count = count;
+        this.arenaOffset = arenaOffset;
+    }
+
+    // Write the books to a catalog file, replacing it. Books without an ISBN are skipped, as in
+    // Library.importBooks, and only the first book of each ISBN is kept. Returns the number written.
+    public static int write(Path file, Collection<Book> books) throws IOException {
+        List<Book> sorted = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (book.getIsbn() != null) {
+                sorted.add(book);
+            }
+        }
+        sorted.sort(Comparator.comparing(Book::getIsbn));
+
+        ByteBuffer records = ByteBuffer.allocate(sorted.size() * RECORD_SIZE);
+        StringArena arena = new StringArena();
+        String previous = null;
+        int written = 0;
+        for (Book book : sorted) {
+            if (book.getIsbn().equals(previous)) {
+                continue;
+            }
+            previous = book.getIsbn();
+            int base = written * RECORD_SIZE;
+            arena.put(records, base, base + 12, book.getIsbn());
+            arena.put(records, base + 4, base + 14, book.getTitle());
+            arena.put(records, base + 8, base + 16, book.getAuthor());
+            records.put(base + 18, (byte) book.getBookType().ordinal());
+            records.put(base + 19, flags(book));
+            records.putInt(base + 20, book.getTotalCopies());
+            records.putInt(base + 24, book.getAvailableCopies());
+            written++;
+        }
+        records.limit(written * RECORD_SIZE);
+
+        long arenaOffset = HEADER_SIZE + (long) written * RECORD_SIZE;
+        if (arenaOffset + arena.size() > Integer.MAX_VALUE) {
+            throw new IOException("The catalog is too large for a single mapping.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(written).putInt(RECORD_SIZE).putLong(arenaOffset);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {header, records, arena.toBuffer()};
+            long remaining = header.remaining() + records.remaining() + parts[2].remaining();
+            while (remaining > 0) {
+                remaining -= channel.write(parts);
+            }
+            channel.force(true);
+        }
+        return written;
+    }
+
+    // Map an existing catalog file. Nothing is decoded until books are looked up.
+    public static MappedCatalog open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a catalog file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Not a catalog file: " + file);
+            }
+            int count = buffer.getInt(8);
+            long arenaOffset = buffer.getLong(16);
+            if (count < 0 || arenaOffset != HEADER_SIZE + (long) count * RECORD_SIZE || arenaOffset > size) {
+                throw new IOException("Corrupt catalog file: " + file);
+            }
+            return new MappedCatalog(channel, buffer, count, (int) arenaOffset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Look up a book by ISBN with a binary search over the records. Returns null if it is not in the catalog.
+    public Book find(String isbn) {
+        int index = indexOf(isbn);
+        return index < 0 ? null : get(index);
+    }
+
+    public boolean contains(String isbn) {
+        return indexOf(isbn) >= 0;
+    }
+
+    // The book in record 'index', in ISBN order.
+    public synchronized Book get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        Book book = materialized.get(index);
+        if (book == null) {
+            int base = recordOffset(index);
+            book = new Book(strings.canonical(string(base + 4, base + 14)), strings.canonical(string(base + 8, base + 16)),
+                    string(base, base + 12), BOOK_TYPES[buffer.get(base + 18)], buffer.getInt(base + 20));
+            int flags = buffer.get(base + 19);
+            book.setAvailableCopies(buffer.getInt(base + 24));
+            book.setInRepair((flags & IN_REPAIR) != 0);
+            book.setDamaged((flags & DAMAGED) != 0);
+            materialized.put(index, book);
+        }
+        return book;
+    }
+
+    // Available copies of the book in record 'index': the live count once it is materialized, the
+    // stored one before.
+    public synchronized int availableAt(int index) {
+        Book book = materialized.get(index);
+        return book != null ? book.getAvailableCopies() : buffer.getInt(recordOffset(index) + 24);
+    }
+
+    // Fields of record 'index', decoded without materializing the book.
+    public String isbnAt(int index) {
+        return string(recordOffset(index), recordOffset(index) + 12);
+    }
+
+    public String titleAt(int index) {
+        return string(recordOffset(index) + 4, recordOffset(index) + 14);
+    }
+
+    public String authorAt(int index) {
+        return string(recordOffset(index) + 8, recordOffset(index) + 16);
+    }
+
+    // Pool of the titles and authors of materialized books; a Library over this catalog shares it.
+    StringPool getStrings() {
+        return strings;
+    }
+
+    // Number of books materialized on the heap so far.
+    public synchronized int materializedCount() {
+        return materialized.size();
+    }
+
+    // Write the copy counts and flags of materialized books back to their records and force them to disk.
+    public synchronized void sync() {
+        for (Map.Entry<Integer, Book> entry : materialized.entrySet()) {
+            int base = recordOffset(entry.getKey());
+            Book book = entry.getValue();
+            buffer.put(base + 19, flags(book));
+            buffer.putInt(base + 20, book.getTotalCopies());
+            buffer.putInt(base + 24, book.getAvailableCopies());
+        }
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    private int indexOf(String isbn) {
+        if (isbn == null) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int base = recordOffset(mid);
+            int cmp = string(base, base + 12).compareTo(isbn);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int recordOffset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private String string(int offsetAt, int lengthAt) {
+        int offset = buffer.getInt(offsetAt);
+        if (offset < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.getShort(lengthAt) & 0xFFFF];
+        ByteBuffer view = buffer.duplicate();
+        view.position(arenaOffset + offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte flags(Book book) {
+        return (byte) ((book.isInRepair() ? IN_REPAIR : 0) | (book.isDamaged() ? DAMAGED : 0));
+    }
+
+    // Appends encoded strings and fills in their offset and length fields in a record.
+    private static final class StringArena {
+        private ByteBuffer bytes = ByteBuffer.allocate(1 << 16);
+
+        void put(ByteBuffer records, int offsetAt, int lengthAt, String value) throws IOException {
+            if (value == null) {
+                records.putInt(offsetAt, -1);
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            if (encoded.length > MAX_STRING_BYTES) {
+                throw new IOException("Catalog string is longer than " + MAX_STRING_BYTES + " bytes.");
+            }
+            if (bytes.remaining() < encoded.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + encoded.length));
+                bytes.flip();
+                grown.put(bytes);
+                bytes = grown;
+            }
+            records.putInt(offsetAt, bytes.position());
+            records.putShort(lengthAt, (short) encoded.length);
+            bytes.put(encoded);
+        }
+
+        int size() {
+            return bytes.position();
+        }
+
+        ByteBuffer toBuffer() {
+            ByteBuffer out = bytes.duplicate();
+            out.flip();
+            return out;
+        }
+    }
+}
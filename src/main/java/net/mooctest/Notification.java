@@ -0,0 +1,32 @@
+package net.mooctest;
+
+// One message addressed to a user on a specific channel.
+class Notification {
+    private final User user;
+    private final NotificationChannel channel;
+    private final String address; // email address or phone number; null for in-app
+    private final String message;
+
+    public Notification(User user, NotificationChannel channel, String address, String message) {
+        this.user = user;
+        this.channel = channel;
+        this.address = address;
+        this.message = message;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
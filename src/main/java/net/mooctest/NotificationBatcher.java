@@ -0,0 +1,156 @@
+package net.mooctest;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collects notifications per channel and hands them to the channel in batches. A channel's buffer
+// is flushed when it reaches the batch size, and all buffers are flushed every time window.
+// Routing follows NotificationService: email if the user has an address, else SMS, else in-app.
+// When a batch fails, its notifications move on to the next channel the user can be reached on.
+class NotificationBatcher implements AutoCloseable {
+    private final Map<NotificationChannel, BatchChannel> channels;
+    private final Map<NotificationChannel, List<Notification>> buffers = new EnumMap<>(NotificationChannel.class);
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer; // null when only size-triggered
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // A windowMillis of 0 disables the timer; buffers then only flush by size or on flush()/close().
+    public NotificationBatcher(Map<NotificationChannel, BatchChannel> channels, int maxBatchSize, long windowMillis) {
+        if (maxBatchSize < 1 || windowMillis < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and the time window must not be negative.");
+        }
+        this.channels = new EnumMap<>(channels);
+        this.maxBatchSize = maxBatchSize;
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            buffers.put(channel, new ArrayList<>(maxBatchSize));
+        }
+        if (windowMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "notification-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    // Queue a notification for the user. Returns false if the user cannot receive notifications.
+    public boolean submit(User user, String message) {
+        if (user.getAccountStatus() == AccountStatus.BLACKLISTED) {
+            LibraryLog.warn("Blacklisted users cannot receive notifications.");
+            return false;
+        }
+        enqueue(route(user, NotificationChannel.EMAIL, message));
+        return true;
+    }
+
+    // Send everything that is buffered, on the calling thread.
+    public void flush() {
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            List<Notification> batch = drain(channel, 1);
+            if (batch != null) {
+                send(channel, batch);
+            }
+        }
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    // Notifications that could not be delivered on any channel.
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdown();
+            try {
+                timer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void enqueue(Notification notification) {
+        if (notification == null) {
+            failed.increment();
+            return;
+        }
+        NotificationChannel channel = notification.getChannel();
+        List<Notification> buffer = buffers.get(channel);
+        synchronized (buffer) {
+            buffer.add(notification);
+        }
+        List<Notification> batch = drain(channel, maxBatchSize);
+        if (batch != null) {
+            send(channel, batch);
+        }
+    }
+
+    // Take the channel's buffer if it holds at least minSize notifications, else return null.
+    private List<Notification> drain(NotificationChannel channel, int minSize) {
+        List<Notification> buffer = buffers.get(channel);
+        synchronized (buffer) {
+            if (buffer.size() < minSize) {
+                return null;
+            }
+            List<Notification> batch = new ArrayList<>(buffer);
+            buffer.clear();
+            return batch;
+        }
+    }
+
+    private void send(NotificationChannel channel, List<Notification> batch) {
+        BatchChannel target = channels.get(channel);
+        try {
+            if (target == null) {
+                throw new IllegalStateException("No batch channel is configured for " + channel + ".");
+            }
+            target.deliver(batch);
+            delivered.add(batch.size());
+        } catch (Exception e) {
+            LibraryLog.warn(() -> "Sending a batch of " + batch.size() + " " + channel + " notifications failed: " + e.getMessage());
+            for (Notification notification : batch) {
+                enqueue(next(notification));
+            }
+        }
+    }
+
+    // The same notification on the next channel the user can be reached on, or null if there is none.
+    private static Notification next(Notification notification) {
+        NotificationChannel[] all = NotificationChannel.values();
+        int after = notification.getChannel().ordinal() + 1;
+        if (after >= all.length) {
+            return null;
+        }
+        return route(notification.getUser(), all[after], notification.getMessage());
+    }
+
+    private static Notification route(User user, NotificationChannel from, String message) {
+        if (from == NotificationChannel.EMAIL && !isBlank(user.getEmail())) {
+            return new Notification(user, NotificationChannel.EMAIL, user.getEmail(), message);
+        }
+        if (from != NotificationChannel.APP && !isBlank(user.getPhoneNumber())) {
+            return new Notification(user, NotificationChannel.SMS, user.getPhoneNumber(), message);
+        }
+        return new Notification(user, NotificationChannel.APP, null, message);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,8 @@
+package net.mooctest;
+
+// Delivery channels, in the order NotificationService falls back through them.
+public enum NotificationChannel {
+    EMAIL,
+    SMS,
+    APP
+}
@@ -0,0 +1,119 @@
+package net.mooctest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sends notifications on a fixed pool of background workers fed by a bounded queue, so callers
+// return as soon as the notification is queued. The overflow policy decides what happens when
+// the queue is full.
+class NotificationDispatcher implements AutoCloseable {
+    private static final AtomicInteger POOL_IDS = new AtomicInteger();
+
+    private final NotificationService notificationService;
+    private final OverflowPolicy overflowPolicy;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder dropped = new LongAdder();
+
+    public NotificationDispatcher(NotificationService notificationService, int workers, int queueCapacity,
+                                  OverflowPolicy overflowPolicy) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Workers and queue capacity must be positive.");
+        }
+        this.notificationService = notificationService;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), workerFactory(), new ThreadPoolExecutor.AbortPolicy());
+        // BLOCK puts straight into the queue, which only drains if the workers already exist.
+        executor.prestartAllCoreThreads();
+    }
+
+    // Queue a notification. The future completes when it has been delivered on some channel, and
+    // completes exceptionally if delivery failed or the notification was dropped.
+    public CompletableFuture<Void> dispatch(User user, String message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                notificationService.sendNotification(user, message);
+                future.complete(null);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            overflow(task, future, e);
+        }
+        return future;
+    }
+
+    private void overflow(Runnable task, CompletableFuture<Void> future, RejectedExecutionException e) {
+        if (executor.isShutdown()) {
+            future.completeExceptionally(e);
+            return;
+        }
+        switch (overflowPolicy) {
+            case CALLER_RUNS:
+                task.run();
+                break;
+            case BLOCK:
+                try {
+                    executor.getQueue().put(task);
+                    // A shutdown while we waited may have let the workers exit with the task still queued.
+                    if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                        future.completeExceptionally(new RejectedExecutionException("The dispatcher has been shut down."));
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(ie);
+                }
+                break;
+            default:
+                dropped.increment();
+                LibraryLog.warn("The notification queue is full. The notification has been dropped.");
+                future.completeExceptionally(new RejectedExecutionException("The notification queue is full."));
+                break;
+        }
+    }
+
+    // Notifications waiting for a worker.
+    public int getPending() {
+        return executor.getQueue().size();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Stop accepting notifications and wait for the queued ones to be sent.
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory workerFactory() {
+        int poolId = POOL_IDS.incrementAndGet();
+        AtomicInteger threadIds = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "notification-" + poolId + "-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -4,10 +4,12 @@ import net.mooctest.AccountStatus;
 import net.mooctest.EmailException;
 import net.mooctest.SMSException;
 
+import java.util.List;
+
 class NotificationService {
     public void sendNotification(User user, String message) {
         if (user.getAccountStatus() == AccountStatus.BLACKLISTED) {
-            System.out.println("Blacklisted users cannot receive notifications.");
+            LibraryLog.warn("Blacklisted users cannot receive notifications.");
             return;
         }
 
@@ -15,11 +17,11 @@ class NotificationService {
         try {
             sendEmail(user.getEmail(), message);
         } catch (EmailException e) {
-            System.out.println("Email sending failed. Try sending a text message...");
+            LibraryLog.warn("Email sending failed. Try sending a text message...");
             try {
                 sendSMS(user.getPhoneNumber(), message);
             } catch (SMSException smsException) {
-                System.out.println("Text message sending failed. Try using in-app notifications...");
+                LibraryLog.warn("Text message sending failed. Try using in-app notifications...");
                 sendAppNotification(user, message);
             }
         }
@@ -29,18 +31,30 @@ class NotificationService {
         if (email == null || email.isEmpty()) {
             throw new EmailException("The user does not have an email address.");
         }
-        System.out.println("Successfully sent email to " + email + ": " + message);
+        LibraryLog.info(() -> "Successfully sent email to " + email + ": " + message);
     }
 
     public void sendSMS(String phoneNumber, String message) throws SMSException {
         if (phoneNumber == null || phoneNumber.isEmpty()) {
             throw new SMSException("The user does not have a phone number.");
         }
-        System.out.println("Successfully sent text message to." + phoneNumber + ": " + message);
+        LibraryLog.info(() -> "Successfully sent text message to." + phoneNumber + ": " + message);
     }
 
     public void sendAppNotification(User user, String message) {
         // Suppose the user uses in-app notifications.
-        System.out.println("Send an in-app notification to the user. [" + user.name + "]: " + message);
+        LibraryLog.info(() -> "Send an in-app notification to the user. [" + user.name + "]: " + message);
+    }
+
+    // A batch channel that sends through this service.
+    public BatchChannel batchChannel(NotificationChannel channel) {
+        return batch -> sendBatch(channel, batch);
+    }
+
+    // Sends each notification of the batch on its own; services with a bulk API override this.
+    public void sendBatch(NotificationChannel channel, List<Notification> batch) {
+        for (Notification notification : batch) {
+            sendNotification(notification.getUser(), notification.getMessage());
+        }
     }
 }
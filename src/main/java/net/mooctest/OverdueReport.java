@@ -0,0 +1,69 @@
+package net.mooctest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Result of an overdue sweep.
+class OverdueReport {
+    static final OverdueReport EMPTY = new OverdueReport(0, 0, 0, 0.0, Collections.<String>emptyList());
+
+    private final int users;
+    private final long loans;
+    private final long overdueLoans;
+    private final double accruedFines;
+    private final List<String> frozenUserIds;
+
+    public OverdueReport(int users, long loans, long overdueLoans, double accruedFines, List<String> frozenUserIds) {
+        this.users = users;
+        this.loans = loans;
+        this.overdueLoans = overdueLoans;
+        this.accruedFines = accruedFines;
+        this.frozenUserIds = frozenUserIds;
+    }
+
+    // Adds two partial results, as produced by different users of the same sweep.
+    public OverdueReport plus(OverdueReport other) {
+        List<String> frozen;
+        if (other.frozenUserIds.isEmpty()) {
+            frozen = frozenUserIds;
+        } else if (frozenUserIds.isEmpty()) {
+            frozen = other.frozenUserIds;
+        } else {
+            frozen = new ArrayList<>(frozenUserIds.size() + other.frozenUserIds.size());
+            frozen.addAll(frozenUserIds);
+            frozen.addAll(other.frozenUserIds);
+        }
+        return new OverdueReport(users + other.users, loans + other.loans, overdueLoans + other.overdueLoans,
+                accruedFines + other.accruedFines, frozen);
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    // Active loans inspected.
+    public long getLoans() {
+        return loans;
+    }
+
+    public long getOverdueLoans() {
+        return overdueLoans;
+    }
+
+    // Fines run up so far by loans that are still out. They are charged when the books are returned.
+    public double getAccruedFines() {
+        return accruedFines;
+    }
+
+    // Accounts this sweep froze.
+    public List<String> getFrozenUserIds() {
+        return Collections.unmodifiableList(frozenUserIds);
+    }
+
+    @Override
+    public String toString() {
+        return "users=" + users + ", loans=" + loans + ", overdue=" + overdueLoans
+                + ", accruedFines=" + accruedFines + ", frozen=" + frozenUserIds.size();
+    }
+}
@@ -0,0 +1,49 @@
+package net.mooctest;
+
+import java.util.Collection;
+import java.util.Collections;
+
+// Computes the fines that outstanding loans have run up as of a given time and freezes accounts
+// whose outstanding fines pass the limit borrowBook enforces. Users are swept in parallel on the
+// common fork-join pool; each user is handled by one task under that user's lock.
+class OverdueSweepService {
+    private static final double FREEZE_THRESHOLD = 50; // same fine limit as borrowBook
+
+    public OverdueReport sweep(Collection<User> users, long asOf) {
+        OverdueReport report = users.parallelStream()
+                .map(user -> sweepUser(user, asOf))
+                .reduce(OverdueReport.EMPTY, OverdueReport::plus);
+        LibraryLog.info(() -> "Overdue sweep finished: " + report);
+        return report;
+    }
+
+    private OverdueReport sweepUser(User user, long asOf) {
+        synchronized (user.lock()) {
+            long loans = 0;
+            long overdue = 0;
+            double accrued = 0.0;
+            for (BorrowRecord record : user.getBorrowedBooks()) {
+                if (record.isReturned()) {
+                    continue; // late returns stay on the list as history; their fine was charged on return
+                }
+                loans++;
+                if (record.getDueMillis() < asOf) {
+                    overdue++;
+                    accrued += record.accruedFine(asOf);
+                }
+            }
+            boolean frozen = false;
+            if (user.accountStatus == AccountStatus.ACTIVE && user.fines + accrued > FREEZE_THRESHOLD) {
+                user.accountStatus = AccountStatus.FROZEN;
+                frozen = true;
+                CirculationJournal journal = user.journal;
+                if (journal != null) {
+                    journal.logStatusChange(user);
+                }
+                LibraryLog.warn(() -> "Outstanding fines of user " + user.getUserId() + " are too high. The account has been frozen.");
+            }
+            return new OverdueReport(1, loans, overdue, accrued,
+                    frozen ? Collections.singletonList(user.getUserId()) : Collections.<String>emptyList());
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package net.mooctest;
+
+// What an asynchronous stage does when its queue is full.
+public enum OverflowPolicy {
+    BLOCK,       // wait until the queue has room
+    CALLER_RUNS, // do the work on the submitting thread
+    DROP         // reject the work and fail its future
+}
@@ -17,91 +17,147 @@ class RegularUser extends User {
 
     @Override
     public void borrowBook(Book book) throws Exception {
-        if (accountStatus == AccountStatus.BLACKLISTED) {
-            throw new IllegalStateException("Blacklisted users cannot borrow books.");
-        }
-        if (accountStatus == AccountStatus.FROZEN) {
-            throw new AccountFrozenException("The account is frozen and books cannot be borrowed.");
-        }
-        if (borrowedBooks.size() >= BORROW_LIMIT) {
-            throw new InvalidOperationException("The maximum number of books borrowed has been reached.");
-        }
-        if (fines > 50) {
-            accountStatus = AccountStatus.FROZEN;
-            throw new OverdueFineException("The fine is too high and the account has been frozen.");
-        }
-        if (!book.isAvailable()) {
-            throw new BookNotAvailableException("The book is unavailable and cannot be borrowed.");
-        }
-        if (creditScore < 60) {
-            throw new InsufficientCreditException("The credit score is too low and books cannot be borrowed.");
-        }
-        if (book.getBookType() == BookType.RARE) {
-            throw new InvalidOperationException("Ordinary users cannot borrow rare books.");
+        switch (tryBorrow(book)) {
+            case BLACKLISTED:
+                throw new IllegalStateException("Blacklisted users cannot borrow books.");
+            case ACCOUNT_FROZEN:
+                throw new AccountFrozenException("The account is frozen and books cannot be borrowed.");
+            case LIMIT_REACHED:
+                throw new InvalidOperationException("The maximum number of books borrowed has been reached.");
+            case FINES_TOO_HIGH:
+                throw new OverdueFineException("The fine is too high and the account has been frozen.");
+            case BOOK_UNAVAILABLE:
+                throw new BookNotAvailableException("The book is unavailable and cannot be borrowed.");
+            case LOW_CREDIT:
+                throw new InsufficientCreditException("The credit score is too low and books cannot be borrowed.");
+            case RARE_BOOK_RESTRICTED:
+                throw new InvalidOperationException("Ordinary users cannot borrow rare books.");
+            default:
+                break;
         }
+    }
 
-        // Increase the complex judgment of book inventory and borrowable status.
-        if (book.getAvailableCopies() < 1) {
-            System.out.println("Insufficient book inventory. Add to the reservation queue.");
-            reserveBook(book);
-            return;
-        }
+    @Override
+    public BorrowResult tryBorrow(Book book) {
+        synchronized (lock()) {
+            if (accountStatus == AccountStatus.BLACKLISTED) {
+                return BorrowResult.BLACKLISTED;
+            }
+            if (accountStatus == AccountStatus.FROZEN) {
+                return BorrowResult.ACCOUNT_FROZEN;
+            }
+            if (borrowedBooks.size() >= BORROW_LIMIT) {
+                return BorrowResult.LIMIT_REACHED;
+            }
+            if (fines > 50) {
+                accountStatus = AccountStatus.FROZEN;
+                if (journal != null) {
+                    journal.logStatusChange(this);
+                }
+                return BorrowResult.FINES_TOO_HIGH;
+            }
+            if (!book.isAvailable()) {
+                return BorrowResult.BOOK_UNAVAILABLE;
+            }
+            if (creditScore < 60) {
+                return BorrowResult.LOW_CREDIT;
+            }
+            if (book.getBookType() == BookType.RARE) {
+                return BorrowResult.RARE_BOOK_RESTRICTED;
+            }
+
+            // Increase the complex judgment of book inventory and borrowable status.
+            if (book.getAvailableCopies() < 1) {
+                LibraryLog.info("Insufficient book inventory. Add to the reservation queue.");
+                try {
+                    reserveBook(book);
+                } catch (Exception e) {
+                    return BorrowResult.BOOK_UNAVAILABLE;
+                }
+                return BorrowResult.RESERVED;
+            }
 
-        // Book borrowing is successful.
-        book.borrow();
-        Date borrowDate = new Date();
-        Date dueDate = calculateDueDate(borrowDate, BORROW_PERIOD);
-        BorrowRecord record = new BorrowRecord(book, this, borrowDate, dueDate);
-        borrowedBooks.add(record);
-        creditScore += 1;  // Increase credit score.
-        System.out.println(name + "successfully borrowed " + book.getTitle() + ", due date:" + dueDate);
+            // Book borrowing is successful.
+            if (!book.tryBorrow()) {
+                return BorrowResult.BOOK_UNAVAILABLE;
+            }
+            long borrowDate = LibraryClock.millis();
+            long dueDate = LoanDates.plusDays(borrowDate, BORROW_PERIOD);
+            BorrowRecord record = new BorrowRecord(book, this, borrowDate, dueDate);
+            borrowedBooks.add(record);
+            creditScore += 1;  // Increase credit score.
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logBorrow(record);
+            }
+            LibraryLog.info(() -> name + "successfully borrowed " + book.getTitle() + ", due date:" + new Date(dueDate));
+            return BorrowResult.BORROWED;
+        }
     }
 
     @Override
     public void returnBook(Book book) throws Exception {
-        BorrowRecord record = findBorrowRecord(book);
-        if (record == null) {
-            throw new InvalidOperationException("The book has not been borrowed.");
+        switch (tryReturn(book)) {
+            case NOT_BORROWED:
+                throw new InvalidOperationException("The book has not been borrowed.");
+            case ALL_COPIES_IN:
+                throw new InvalidOperationException("All copies are in the library.");
+            case RETURNED_ACCOUNT_FROZEN:
+                throw new OverdueFineException("The fine is too high and the account has been frozen.");
+            default:
+                break;
         }
-        book.returnBook();
-        record.setReturnDate(new Date());
-        borrowedBooks.remove(record);
+    }
 
-        // 
-        long borrowDuration = (record.getReturnDate().getTime() - record.getBorrowDate().getTime()) / (1000 * 60 * 60 * 24);
-        if (borrowDuration > BORROW_PERIOD) {
-            System.out.println("Return the book" + (borrowDuration - BORROW_PERIOD) + "days overdue and calculate the fine." );
-        }
+    @Override
+    public ReturnResult tryReturn(Book book) {
+        synchronized (lock()) {
+            BorrowRecord record = findBorrowRecord(book);
+            if (record == null) {
+                return ReturnResult.NOT_BORROWED;
+            }
+            if (!book.tryReturn()) {
+                return ReturnResult.ALL_COPIES_IN;
+            }
+            long returnDate = LibraryClock.millis();
+            record.setReturnDate(returnDate);
+            borrowedBooks.remove(record);
+            if (record.isReturnedLate()) {
+                lateReturns++;
+            }
 
-        fines += record.calculateFine();
-        if (fines > 100) {
-            accountStatus = AccountStatus.FROZEN;
-            throw new OverdueFineException("The fine is too high and the account has been frozen.");
-        }
+            // 
+            long borrowDuration = LoanDates.daysBetween(record.getBorrowMillis(), returnDate);
+            if (borrowDuration > BORROW_PERIOD) {
+                LibraryLog.info(() -> "Return the book" + (borrowDuration - BORROW_PERIOD) + "days overdue and calculate the fine." );
+            }
 
-        if (record.getFineAmount() > 0) {
-            creditScore -= 5; // Return books overdue and deduct credit scores.
-            if (creditScore < 50) {
+            fines += record.getFineAmount(); // computed once by setReturnDate
+            if (fines > 100) {
                 accountStatus = AccountStatus.FROZEN;
+                if (journal != null) {
+                    journal.logReturn(record);
+                }
+                return ReturnResult.RETURNED_ACCOUNT_FROZEN;
+            }
+
+            if (record.getFineAmount() > 0) {
+                creditScore -= 5; // Return books overdue and deduct credit scores.
+                if (creditScore < 50) {
+                    accountStatus = AccountStatus.FROZEN;
+                }
+            } else {
+                creditScore += 2; // Return books on time and increase credit score.
+            }
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logReturn(record);
             }
-        } else {
-            creditScore += 2; // Return books on time and increase credit score.
+            return ReturnResult.RETURNED;
         }
     }
 
     public Date calculateDueDate(Date borrowDate, int periodDays) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(borrowDate);
-        cal.add(Calendar.DAY_OF_MONTH, periodDays);
-        return cal.getTime();
-    }
-
-    public BorrowRecord findBorrowRecord(Book book) {
-        for (BorrowRecord record : borrowedBooks) {
-            if (record.getBook().equals(book)) {
-                return record;
-            }
-        }
-        return null;
+        return new Date(LoanDates.plusDays(borrowDate.getTime(), periodDays));
     }
 }
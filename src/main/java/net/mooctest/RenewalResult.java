@@ -0,0 +1,10 @@
+package net.mooctest;
+
+// Outcome of an automatic renewal attempt.
+public enum RenewalResult {
+    RENEWED,
+    ACCOUNT_NOT_ACTIVE,
+    RESERVED,       // other users are waiting for the book
+    LOW_CREDIT,
+    NOT_BORROWED
+}
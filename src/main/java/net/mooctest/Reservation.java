@@ -2,17 +2,21 @@ package net.mooctest;
 
 import net.mooctest.AccountStatus;
 
-import java.util.Date;
 class Reservation {
     private Book book;
     private User user;
-    private Date reservationDate;
+    private long reservationDate; // epoch milliseconds
     private int priority;
 
     public Reservation(Book book, User user) {
+        this(book, user, LibraryClock.millis());
+    }
+
+    // Restore a reservation made at the given time (epoch milliseconds).
+    Reservation(Book book, User user, long reservationDate) {
         this.book = book;
         this.user = user;
-        this.reservationDate = new Date();
+        this.reservationDate = reservationDate;
         this.priority = calculatePriority();
     }
 
@@ -24,26 +28,39 @@ class Reservation {
         // If the user is a VIP, the priority will be additionally increased by 10 points.
         if (user instanceof VIPUser) {
             priority += 10;
-            System.out.println("For VIP users' reservations, the priority is enhanced.");
+            LibraryLog.info("For VIP users' reservations, the priority is enhanced.");
         }
 
         // If the user has a record of delayed return in past borrowings, the priority is reduced.
-        for (BorrowRecord record : user.getBorrowedBooks()) {
-            if (record.getReturnDate() != null && record.getReturnDate().after(record.getDueDate())) {
-                priority -= 5; // For each delayed return of a book, the priority is reduced by 5.
-                System.out.println("Delayed return records will lower the reservation priority.");
-            }
+        int lateReturns = user.getLateReturns();
+        if (lateReturns > 0) {
+            priority -= 5 * lateReturns; // For each delayed return of a book, the priority is reduced by 5.
+            LibraryLog.warn("Delayed return records will lower the reservation priority.");
         }
 
         // Blacklisted users cannot make reservations.
         if (user.getAccountStatus() == AccountStatus.BLACKLISTED) {
-            System.out.println("Blacklisted users cannot reserve books.");
+            LibraryLog.warn("Blacklisted users cannot reserve books.");
             return -1;
         }
 
         return priority;
     }
 
+    // Recompute the priority after the user's credit changed and move the hold to its new place in
+    // the book's queue. Returns true if the priority changed.
+    public boolean reprioritize() {
+        int updated = calculatePriority();
+        synchronized (book) { // the queue compares priorities under the book's monitor
+            if (updated == priority) {
+                return false;
+            }
+            priority = updated;
+            book.updateReservation(this);
+        }
+        return true;
+    }
+
     public Book getBook() {
         return book;
     }
@@ -55,4 +72,8 @@ class Reservation {
     public int getPriority() {
         return priority;
     }
+
+    public long getReservationMillis() {
+        return reservationDate;
+    }
 }
@@ -0,0 +1,222 @@
+package net.mooctest;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Binary heap of reservations that also tracks where each reservation sits, so a hold can be
+// cancelled or re-prioritized in O(log n) instead of scanning the queue. Sifting follows
+// java.util.PriorityQueue, so poll order is the same as the PriorityQueue this replaces.
+class ReservationQueue extends AbstractQueue<Reservation> {
+    private static final int INITIAL_CAPACITY = 11;
+
+    private final Comparator<? super Reservation> comparator;
+    private final Map<Reservation, Integer> positions = new IdentityHashMap<>();
+    private Reservation[] heap = new Reservation[INITIAL_CAPACITY];
+    private int size;
+    private int modCount;
+
+    public ReservationQueue(Comparator<? super Reservation> comparator) {
+        this.comparator = comparator;
+    }
+
+    @Override
+    public boolean offer(Reservation reservation) {
+        if (reservation == null) {
+            throw new NullPointerException();
+        }
+        if (positions.containsKey(reservation)) {
+            return false;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size < 64 ? size * 2 + 2 : size + (size >> 1));
+        }
+        modCount++;
+        siftUp(size++, reservation);
+        return true;
+    }
+
+    @Override
+    public Reservation poll() {
+        if (size == 0) {
+            return null;
+        }
+        Reservation head = heap[0];
+        removeAt(0);
+        return head;
+    }
+
+    @Override
+    public Reservation peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return positions.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Integer index = positions.get(o);
+        if (index == null) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    // Restores heap order after the reservation's priority changed. Returns false if it is not queued.
+    public boolean update(Reservation reservation) {
+        Integer index = positions.get(reservation);
+        if (index == null) {
+            return false;
+        }
+        modCount++;
+        int i = index;
+        siftDown(i, reservation);
+        if (heap[i] == reservation) {
+            siftUp(i, reservation);
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        Arrays.fill(heap, 0, size, null);
+        positions.clear();
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Reservation> iterator() {
+        return new Itr();
+    }
+
+    // Removes the element at index i. If the last element moved into a slot before i while
+    // re-sifting, it is returned so an iterator can still visit it; otherwise returns null.
+    private Reservation removeAt(int i) {
+        modCount++;
+        positions.remove(heap[i]);
+        int s = --size;
+        if (s == i) {
+            heap[i] = null;
+            return null;
+        }
+        Reservation moved = heap[s];
+        heap[s] = null;
+        siftDown(i, moved);
+        if (heap[i] == moved) {
+            siftUp(i, moved);
+            if (heap[i] != moved) {
+                return moved;
+            }
+        }
+        return null;
+    }
+
+    private void siftUp(int k, Reservation x) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            Reservation e = heap[parent];
+            if (comparator.compare(x, e) >= 0) {
+                break;
+            }
+            place(k, e);
+            k = parent;
+        }
+        place(k, x);
+    }
+
+    private void siftDown(int k, Reservation x) {
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            Reservation c = heap[child];
+            int right = child + 1;
+            if (right < size && comparator.compare(c, heap[right]) > 0) {
+                c = heap[child = right];
+            }
+            if (comparator.compare(x, c) <= 0) {
+                break;
+            }
+            place(k, c);
+            k = child;
+        }
+        place(k, x);
+    }
+
+    private void place(int k, Reservation x) {
+        heap[k] = x;
+        positions.put(x, k);
+    }
+
+    // Walks the heap array; elements that a removal moves behind the cursor are visited from a side list.
+    private final class Itr implements Iterator<Reservation> {
+        private int cursor;
+        private int lastRet = -1;
+        private ArrayDeque<Reservation> forgetMeNot;
+        private Reservation lastRetElt;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size || (forgetMeNot != null && !forgetMeNot.isEmpty());
+        }
+
+        @Override
+        public Reservation next() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (cursor < size) {
+                return heap[lastRet = cursor++];
+            }
+            if (forgetMeNot != null) {
+                lastRet = -1;
+                lastRetElt = forgetMeNot.poll();
+                if (lastRetElt != null) {
+                    return lastRetElt;
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (lastRet != -1) {
+                Reservation moved = removeAt(lastRet);
+                lastRet = -1;
+                if (moved == null) {
+                    cursor--;
+                } else {
+                    if (forgetMeNot == null) {
+                        forgetMeNot = new ArrayDeque<>();
+                    }
+                    forgetMeNot.add(moved);
+                }
+            } else if (lastRetElt != null) {
+                ReservationQueue.this.remove(lastRetElt);
+                lastRetElt = null;
+            } else {
+                throw new IllegalStateException();
+            }
+            expectedModCount = modCount;
+        }
+    }
+}
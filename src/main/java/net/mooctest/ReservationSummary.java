@@ -0,0 +1,44 @@
+package net.mooctest;
+
+// Result of a batch reservation run.
+class ReservationSummary {
+    static final ReservationSummary EMPTY = new ReservationSummary(0, 0, 0);
+
+    private final int fulfilled;
+    private final int failed;
+    private final int books;
+
+    public ReservationSummary(int fulfilled, int failed, int books) {
+        this.fulfilled = fulfilled;
+        this.failed = failed;
+        this.books = books;
+    }
+
+    // Adds two partial results, as produced by different books of the same run.
+    public ReservationSummary plus(ReservationSummary other) {
+        return new ReservationSummary(fulfilled + other.fulfilled, failed + other.failed, books + other.books);
+    }
+
+    // Holds that turned into a loan.
+    public int getFulfilled() {
+        return fulfilled;
+    }
+
+    // Holds that were taken off the queue but could not be lent, e.g. because the account is frozen.
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getBooks() {
+        return books;
+    }
+
+    public int getTotal() {
+        return fulfilled + failed;
+    }
+
+    @Override
+    public String toString() {
+        return "books=" + books + ", fulfilled=" + fulfilled + ", failed=" + failed;
+    }
+}
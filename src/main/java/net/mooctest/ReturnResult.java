@@ -0,0 +1,9 @@
+package net.mooctest;
+
+// Outcome of User.tryReturn.
+public enum ReturnResult {
+    RETURNED,
+    RETURNED_ACCOUNT_FROZEN, // the book was returned, but the fines now exceed the limit
+    NOT_BORROWED,
+    ALL_COPIES_IN
+}
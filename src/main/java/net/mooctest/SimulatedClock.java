@@ -0,0 +1,78 @@
+package net.mooctest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Clock for load tests and replays. Time starts at a chosen instant, runs at a multiple of real time
+// (0 for a clock that only moves when advanced), and can be pushed forward at any moment, so months
+// of circulation can be replayed in minutes. Copies made by withZone share the same timeline.
+class SimulatedClock extends Clock {
+    private final ZoneId zone;
+    private final long startMillis;
+    private final long originNanos;
+    private final double speed;
+    private final AtomicLong offsetMillis;
+
+    private SimulatedClock(ZoneId zone, long startMillis, long originNanos, double speed, AtomicLong offsetMillis) {
+        this.zone = zone;
+        this.startMillis = startMillis;
+        this.originNanos = originNanos;
+        this.speed = speed;
+        this.offsetMillis = offsetMillis;
+    }
+
+    // A clock that stands still until advanced.
+    public static SimulatedClock manual(Instant start, ZoneId zone) {
+        return accelerated(start, zone, 0);
+    }
+
+    // A clock that runs 'speed' times faster than real time, e.g. 86400 for one simulated day per second.
+    public static SimulatedClock accelerated(Instant start, ZoneId zone, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("The clock speed must not be negative.");
+        }
+        return new SimulatedClock(zone, start.toEpochMilli(), System.nanoTime(), speed, new AtomicLong());
+    }
+
+    public void advance(Duration amount) {
+        if (amount.isNegative()) {
+            throw new IllegalArgumentException("A simulated clock cannot go backwards.");
+        }
+        offsetMillis.addAndGet(amount.toMillis());
+    }
+
+    public void advanceDays(int days) {
+        advance(Duration.ofDays(days));
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public long millis() {
+        long elapsed = speed == 0 ? 0 : (long) ((System.nanoTime() - originNanos) / 1_000_000.0 * speed);
+        return startMillis + elapsed + offsetMillis.get();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(this.zone)) {
+            return this;
+        }
+        return new SimulatedClock(zone, startMillis, originNanos, speed, offsetMillis);
+    }
+}
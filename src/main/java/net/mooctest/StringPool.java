@@ -0,0 +1,75 @@
+package net.mooctest;
+
+// Canonical catalog strings. Each distinct string is stored once and canonical() hands out the stored
+// instance, so books of the same author share one string. Each Library owns a pool (shared with its
+// MappedCatalog, if any), so strings live as long as the catalog that uses them.
+//
+// The hash table is open-addressed over the strings themselves, so a string costs one array slot
+// rather than a map entry, and can be looked up from a range of a line without a substring.
+class StringPool {
+    private String[] table = new String[512]; // guarded by this
+    private int size;                         // guarded by this
+
+    // Canonical instance of the string, so equal strings share one object.
+    public String canonical(String value) {
+        return value == null ? null : canonical(value, 0, value.length());
+    }
+
+    // Canonical instance of text[start, end), adding it if it is new. A substring is only created for a new string.
+    public synchronized String canonical(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        for (String value; (value = table[slot]) != null; slot = (slot + 1) & mask) {
+            if (matches(value, text, start, end)) {
+                return value;
+            }
+        }
+        String value = text.subSequence(start, end).toString();
+        table[slot] = value;
+        size++;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return value;
+    }
+
+    private void rehash() {
+        String[] grown = new String[table.length * 2];
+        int mask = grown.length - 1;
+        for (String value : table) {
+            if (value == null) {
+                continue;
+            }
+            int slot = spread(value.hashCode()) & mask;
+            while (grown[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = value;
+        }
+        table = grown;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String value, CharSequence text, int start, int end) {
+        int length = end - start;
+        if (value.length() != length) {
+            return false;
+        }
+        if (text instanceof String) {
+            return value.regionMatches(0, (String) text, start, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
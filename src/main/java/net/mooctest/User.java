@@ -14,11 +14,13 @@ abstract class User {
     protected UserType userType;
     protected double fines;
     protected int creditScore;
-    protected List<BorrowRecord> borrowedBooks;
+    protected LoanList borrowedBooks; // active loans, indexed by book
     protected List<Reservation> reservations;
+    protected int lateReturns; // loans returned after their due date
     protected AccountStatus accountStatus;
     protected String email;
     protected String phoneNumber;
+    volatile CirculationJournal journal; // set by a persistent Library while the user is registered
 
     public User(String name, String userId, UserType userType) {
         this.name = name;
@@ -26,32 +28,85 @@ abstract class User {
         this.userType = userType;
         this.fines = 0.0;
         this.creditScore = 100;
-        this.borrowedBooks = new ArrayList<>();
+        this.borrowedBooks = new LoanList();
         this.reservations = new ArrayList<>();
         this.accountStatus = AccountStatus.ACTIVE;
     }
 
+    // Monitor guarding this user's loans, fines, credit score and status. Subclasses must hold it
+    // while reading or changing that state; see UserLockStripes.
+    protected Object lock() {
+        return UserLockStripes.lockFor(userId);
+    }
+
+    // Keep this user's active loans filed in the library's due-date index.
+    public void setDueDateIndex(DueDateIndex index) {
+        synchronized (lock()) {
+            borrowedBooks.setDueDateIndex(index);
+        }
+    }
+
     public abstract void borrowBook(Book book) throws Exception;
 
     public abstract void returnBook(Book book) throws Exception;
 
-    // The user pays the fine.
-    public void payFine(double amount) {
-        if (accountStatus == AccountStatus.BLACKLISTED) {
-            throw new IllegalStateException("");
+    // Borrow without throwing on a rejection, for batch and hot paths. The default maps the exceptions
+    // of borrowBook; RegularUser and VIPUser decide directly and build borrowBook on top of this.
+    public BorrowResult tryBorrow(Book book) {
+        try {
+            borrowBook(book);
+            return BorrowResult.BORROWED;
+        } catch (AccountFrozenException e) {
+            return BorrowResult.ACCOUNT_FROZEN;
+        } catch (OverdueFineException e) {
+            return BorrowResult.FINES_TOO_HIGH;
+        } catch (InsufficientCreditException e) {
+            return BorrowResult.LOW_CREDIT;
+        } catch (IllegalStateException | BlacklistedUserException e) {
+            return BorrowResult.BLACKLISTED;
+        } catch (BookNotAvailableException e) {
+            return BorrowResult.BOOK_UNAVAILABLE;
+        } catch (InvalidOperationException e) {
+            return BorrowResult.INVALID_OPERATION;
+        } catch (Exception e) {
+            return BorrowResult.FAILED;
         }
-        if (amount > fines) {
-            throw new IllegalArgumentException("If the user is on the blacklist, they cannot pay the fine.");
+    }
+
+    // Return without throwing on a rejection; see tryBorrow.
+    public ReturnResult tryReturn(Book book) {
+        try {
+            returnBook(book);
+            return ReturnResult.RETURNED;
+        } catch (OverdueFineException e) {
+            return ReturnResult.RETURNED_ACCOUNT_FROZEN;
+        } catch (Exception e) {
+            return ReturnResult.NOT_BORROWED;
         }
-        fines -= amount;
-        System.out.println("Paid a fine of " + amount + " yuan.");
-        if (fines == 0) {
-            if (accountStatus == AccountStatus.FROZEN) {
-                System.out.println("The fine has been cleared and the account status is restored.");
-                accountStatus = AccountStatus.ACTIVE;
+    }
+
+    // The user pays the fine.
+    public void payFine(double amount) {
+        synchronized (lock()) {
+            if (accountStatus == AccountStatus.BLACKLISTED) {
+                throw new IllegalStateException("");
+            }
+            if (amount > fines) {
+                throw new IllegalArgumentException("If the user is on the blacklist, they cannot pay the fine.");
+            }
+            fines -= amount;
+            LibraryLog.info(() -> "Paid a fine of " + amount + " yuan.");
+            if (fines == 0) {
+                if (accountStatus == AccountStatus.FROZEN) {
+                    LibraryLog.info("The fine has been cleared and the account status is restored.");
+                    accountStatus = AccountStatus.ACTIVE;
+                }
+            } else {
+                LibraryLog.info(() -> "There is still a fine of " + fines + " yuan to be paid.");
+            }
+            if (journal != null) {
+                journal.logFinePayment(this);
             }
-        } else {
-            System.out.println("There is still a fine of " + fines + " yuan to be paid.");
         }
     }
 
@@ -61,33 +116,50 @@ abstract class User {
 
     // The user reserves a book.
     public void reserveBook(Book book) throws Exception {
-        if (accountStatus == AccountStatus.BLACKLISTED) {
-            throw new IllegalStateException("Blacklisted users cannot reserve books.");
-        }
-        if (accountStatus == AccountStatus.FROZEN) {
-            throw new AccountFrozenException("The account is frozen and books cannot be reserved.");
-        }
-        if (reservations.contains(book)) {
-            throw new ReservationNotAllowedException("This book has already been reserved.");
-        }
-        if (creditScore < 50) {
-            throw new InsufficientCreditException("Insufficient credit score. Cannot reserve books.");
-        }
-        if (!book.isAvailable()) {
-            System.out.println("The book is unavailable and has been added to the reservation queue.");
+        synchronized (lock()) {
+            if (accountStatus == AccountStatus.BLACKLISTED) {
+                throw new IllegalStateException("Blacklisted users cannot reserve books.");
+            }
+            if (accountStatus == AccountStatus.FROZEN) {
+                throw new AccountFrozenException("The account is frozen and books cannot be reserved.");
+            }
+            if (reservations.contains(book)) {
+                throw new ReservationNotAllowedException("This book has already been reserved.");
+            }
+            if (creditScore < 50) {
+                throw new InsufficientCreditException("Insufficient credit score. Cannot reserve books.");
+            }
+            if (!book.isAvailable()) {
+                LibraryLog.warn("The book is unavailable and has been added to the reservation queue.");
+            }
+            Reservation reservation = new Reservation(book, this);
+            book.addReservation(reservation);
+            reservations.add(reservation);
+            if (journal != null) {
+                journal.logReserve(reservation);
+            }
         }
-        Reservation reservation = new Reservation(book, this);
-        book.addReservation(reservation);
-        reservations.add(reservation);
     }
 
     public void cancelReservation(Book book) throws Exception {
-        Reservation reservation = findReservation(book);
-        if (reservation == null) {
-            throw new InvalidOperationException("This book has not been reserved.");
+        synchronized (lock()) {
+            Reservation reservation = findReservation(book);
+            if (reservation == null) {
+                throw new InvalidOperationException("This book has not been reserved.");
+            }
+            book.removeReservation(reservation);
+            reservations.remove(reservation);
+            if (journal != null) {
+                journal.logCancel(this, book);
+            }
+        }
+    }
+
+    // Forget a hold the library has taken off the book's queue to lend the book.
+    void removeFulfilledReservation(Reservation reservation) {
+        synchronized (lock()) {
+            reservations.remove(reservation);
         }
-        book.removeReservation(reservation);
-        reservations.remove(reservation);
     }
 
     protected Reservation findReservation(Book book) {
@@ -99,38 +171,63 @@ abstract class User {
         return null;
     }
 
+    // Credit feeds reservation priority, so after a score change the user's queued holds are re-keyed.
+    // Callers hold lock().
+    protected void reprioritizeReservations() {
+        for (Reservation reservation : reservations) {
+            reservation.reprioritize();
+        }
+    }
+
     public void receiveNotification(String message) {
         if (accountStatus == AccountStatus.BLACKLISTED) {
-            System.out.println("Blacklisted users cannot receive notifications.");
+            LibraryLog.warn("Blacklisted users cannot receive notifications.");
         } else {
-            System.out.println("Notify user [" + name + "]: " + message);
+            LibraryLog.info(() -> "Notify user [" + name + "]: " + message);
         }
     }
 
     public void addScore(int points) {
-        if (accountStatus == AccountStatus.BLACKLISTED) {
-            throw new IllegalStateException("Blacklisted users cannot increase their credit score.");
+        synchronized (lock()) {
+            if (accountStatus == AccountStatus.BLACKLISTED) {
+                throw new IllegalStateException("Blacklisted users cannot increase their credit score.");
+            }
+            creditScore += points;
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logStatusChange(this);
+            }
+            LibraryLog.info(() -> "Credit score increased by " + points + ". Current credit score: " + creditScore);
         }
-        creditScore += points;
-        System.out.println("Credit score increased by " + points + ". Current credit score: " + creditScore);
     }
 
     public void deductScore(int points) {
-        creditScore -= points;
-        if (creditScore < 0) {
-            creditScore = 0;
-        }
-        if (creditScore < 50 && accountStatus != AccountStatus.BLACKLISTED) {
-            accountStatus = AccountStatus.FROZEN;
-            System.out.println("The credit score is too low. The account has been frozen.");
+        synchronized (lock()) {
+            creditScore -= points;
+            if (creditScore < 0) {
+                creditScore = 0;
+            }
+            if (creditScore < 50 && accountStatus != AccountStatus.BLACKLISTED) {
+                accountStatus = AccountStatus.FROZEN;
+                LibraryLog.warn("The credit score is too low. The account has been frozen.");
+            }
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logStatusChange(this);
+            }
+            LibraryLog.info(() -> "Credit score decreased by " + points + ". Current credit score: " + creditScore);
         }
-        System.out.println("Credit score decreased by " + points + ". Current credit score: " + creditScore);
     }
 
     public int getCreditScore() {
         return creditScore;
     }
 
+    // Late returns on record, kept as a running count so reservation priority does not rescan history.
+    public int getLateReturns() {
+        return lateReturns + borrowedBooks.getReturnedLate();
+    }
+
     public List<BorrowRecord> getBorrowedBooks() {
         return borrowedBooks;
     }
@@ -140,15 +237,24 @@ abstract class User {
     }
 
     public void setAccountStatus(AccountStatus accountStatus) {
-        this.accountStatus = accountStatus;
-    }
-    public BorrowRecord findBorrowRecord(Book book) {
-        for (BorrowRecord record : borrowedBooks) {
-            if (record.getBook().equals(book)) {
-                return record;
+        synchronized (lock()) {
+            this.accountStatus = accountStatus;
+            if (journal != null) {
+                journal.logStatusChange(this);
             }
         }
-        return null;
+    }
+
+    public BorrowRecord findBorrowRecord(Book book) {
+        return borrowedBooks.find(book);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getName() {
+        return name;
     }
 
     public String getEmail() {
@@ -166,4 +272,21 @@ abstract class User {
     public void setPhoneNumber(String phoneNumber) {
         this.phoneNumber = phoneNumber;
     }
+
+    // Users are identified by their user ID. A user without one is only equal to itself.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof User)) {
+            return false;
+        }
+        return userId != null && userId.equals(((User) o).userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return userId != null ? userId.hashCode() : System.identityHashCode(this);
+    }
 }
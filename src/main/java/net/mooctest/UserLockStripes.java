@@ -0,0 +1,44 @@
+package net.mooctest;
+
+// Fixed pool of monitors shared by all users. A user always maps to the same stripe, so
+// operations on one user are serialized while different users mostly land on different
+// stripes and run in parallel.
+class UserLockStripes {
+    private static final int STRIPES = 256; // must be a power of two
+    private static final Object[] LOCKS = new Object[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private UserLockStripes() {
+    }
+
+    public static Object lockFor(String userId) {
+        int h = userId == null ? 0 : userId.hashCode();
+        h ^= (h >>> 16); // spread high bits, as HashMap does
+        return LOCKS[h & (STRIPES - 1)];
+    }
+
+    interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    // Run the action holding every stripe, in stripe order, so no user operation is in progress
+    // or can start until it returns.
+    public static <E extends Exception> void withAllLocks(Action<E> action) throws E {
+        lockFrom(0, action);
+    }
+
+    private static <E extends Exception> void lockFrom(int stripe, Action<E> action) throws E {
+        if (stripe == STRIPES) {
+            action.run();
+            return;
+        }
+        synchronized (LOCKS[stripe]) {
+            lockFrom(stripe + 1, action);
+        }
+    }
+}
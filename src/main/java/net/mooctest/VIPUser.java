@@ -17,82 +17,145 @@ class VIPUser extends User {
 
     @Override
     public void borrowBook(Book book) throws Exception {
-        if (accountStatus == AccountStatus.BLACKLISTED) {
-            throw new IllegalStateException("Blacklisted users cannot borrow books.");
-        }
-        if (accountStatus == AccountStatus.FROZEN) {
-            throw new AccountFrozenException("The account is frozen and cannot borrow books.");
-        }
-        if (borrowedBooks.size() >= BORROW_LIMIT) {
-            throw new InvalidOperationException("The maximum number of books borrowed has been reached.");
-        }
-        if (fines > 50) {
-            accountStatus = AccountStatus.FROZEN;
-            throw new OverdueFineException("The fine is too high. The account has been frozen.");
-        }
-        if (!book.isAvailable()) {
-            throw new BookNotAvailableException("The book is unavailable and cannot be borrowed.");
-        }
-        if (creditScore < 50) {
-            throw new InsufficientCreditException("The credit score is too low and borrowing is not allowed.");
+        switch (tryBorrow(book)) {
+            case BLACKLISTED:
+                throw new IllegalStateException("Blacklisted users cannot borrow books.");
+            case ACCOUNT_FROZEN:
+                throw new AccountFrozenException("The account is frozen and cannot borrow books.");
+            case LIMIT_REACHED:
+                throw new InvalidOperationException("The maximum number of books borrowed has been reached.");
+            case FINES_TOO_HIGH:
+                throw new OverdueFineException("The fine is too high. The account has been frozen.");
+            case BOOK_UNAVAILABLE:
+                throw new BookNotAvailableException("The book is unavailable and cannot be borrowed.");
+            case LOW_CREDIT:
+                throw new InsufficientCreditException("The credit score is too low and borrowing is not allowed.");
+            default:
+                break;
         }
+    }
 
-        // VIP users can borrow rare and precious books.
-        book.borrow();
-        Date borrowDate = new Date();
-        Date dueDate = calculateDueDate(borrowDate, BORROW_PERIOD);
-        BorrowRecord record = new BorrowRecord(book, this, borrowDate, dueDate);
-        borrowedBooks.add(record);
-        creditScore += 2; // Increase credit score.
-        System.out.println(name + " Successfully borrowed " + book.getTitle() + ". Due date: " + dueDate);
+    @Override
+    public BorrowResult tryBorrow(Book book) {
+        synchronized (lock()) {
+            if (accountStatus == AccountStatus.BLACKLISTED) {
+                return BorrowResult.BLACKLISTED;
+            }
+            if (accountStatus == AccountStatus.FROZEN) {
+                return BorrowResult.ACCOUNT_FROZEN;
+            }
+            if (borrowedBooks.size() >= BORROW_LIMIT) {
+                return BorrowResult.LIMIT_REACHED;
+            }
+            if (fines > 50) {
+                accountStatus = AccountStatus.FROZEN;
+                if (journal != null) {
+                    journal.logStatusChange(this);
+                }
+                return BorrowResult.FINES_TOO_HIGH;
+            }
+            if (!book.isAvailable()) {
+                return BorrowResult.BOOK_UNAVAILABLE;
+            }
+            if (creditScore < 50) {
+                return BorrowResult.LOW_CREDIT;
+            }
+
+            // VIP users can borrow rare and precious books.
+            if (!book.tryBorrow()) {
+                return BorrowResult.BOOK_UNAVAILABLE;
+            }
+            long borrowDate = LibraryClock.millis();
+            long dueDate = LoanDates.plusDays(borrowDate, BORROW_PERIOD);
+            BorrowRecord record = new BorrowRecord(book, this, borrowDate, dueDate);
+            borrowedBooks.add(record);
+            creditScore += 2; // Increase credit score.
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logBorrow(record);
+            }
+            LibraryLog.info(() -> name + " Successfully borrowed " + book.getTitle() + ". Due date: " + new Date(dueDate));
+            return BorrowResult.BORROWED;
+        }
     }
 
     @Override
     public void returnBook(Book book) throws Exception {
-        BorrowRecord record = findBorrowRecord(book);
-        if (record == null) {
-            throw new InvalidOperationException("This book has not been borrowed.");
+        switch (tryReturn(book)) {
+            case NOT_BORROWED:
+                throw new InvalidOperationException("This book has not been borrowed.");
+            case ALL_COPIES_IN:
+                throw new InvalidOperationException("All copies are in the library.");
+            case RETURNED_ACCOUNT_FROZEN:
+                throw new OverdueFineException("The fine is too high. The account has been frozen.");
+            default:
+                break;
         }
-        book.returnBook();
-        record.setReturnDate(new Date());
-        borrowedBooks.remove(record);
-        fines += record.calculateFine(); // Update fine.
-        if (fines > 100) {
-            accountStatus = AccountStatus.FROZEN;
-            throw new OverdueFineException("The fine is too high. The account has been frozen.");
-        }
-        if (record.getFineAmount() > 0) {
-            creditScore -= 3; // For VIP users, 3 points will be deducted for overdue.
-        } else {
-            creditScore += 3; // Return books on time. VIP users will gain 3 points.
+    }
+
+    @Override
+    public ReturnResult tryReturn(Book book) {
+        synchronized (lock()) {
+            BorrowRecord record = findBorrowRecord(book);
+            if (record == null) {
+                return ReturnResult.NOT_BORROWED;
+            }
+            if (!book.tryReturn()) {
+                return ReturnResult.ALL_COPIES_IN;
+            }
+            record.setReturnDate(LibraryClock.millis());
+            borrowedBooks.remove(record);
+            if (record.isReturnedLate()) {
+                lateReturns++;
+            }
+            fines += record.getFineAmount(); // Update fine, as computed by setReturnDate.
+            if (fines > 100) {
+                accountStatus = AccountStatus.FROZEN;
+                if (journal != null) {
+                    journal.logReturn(record);
+                }
+                return ReturnResult.RETURNED_ACCOUNT_FROZEN;
+            }
+            if (record.getFineAmount() > 0) {
+                creditScore -= 3; // For VIP users, 3 points will be deducted for overdue.
+            } else {
+                creditScore += 3; // Return books on time. VIP users will gain 3 points.
+            }
+            reprioritizeReservations();
+            if (journal != null) {
+                journal.logReturn(record);
+            }
+            return ReturnResult.RETURNED;
         }
     }
 
     public void extendBorrowPeriod(Book book) throws Exception {
-        if (hasExtendedBorrow) {
-            throw new InvalidOperationException("This book has already been renewed.");
-        }
-        BorrowRecord record = findBorrowRecord(book);
-        if (record == null) {
-            throw new InvalidOperationException("This book has not been borrowed.");
+        synchronized (lock()) {
+            if (hasExtendedBorrow) {
+                throw new InvalidOperationException("This book has already been renewed.");
+            }
+            BorrowRecord record = findBorrowRecord(book);
+            if (record == null) {
+                throw new InvalidOperationException("This book has not been borrowed.");
+            }
+            record.extendDueDate(7); // Renew for 7 days.
+            hasExtendedBorrow = true;
+            if (journal != null) {
+                journal.logStatusChange(this);
+            }
         }
-        record.extendDueDate(7); // Renew for 7 days.
-        hasExtendedBorrow = true;
     }
 
-    public Date calculateDueDate(Date borrowDate, int periodDays) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(borrowDate);
-        cal.add(Calendar.DAY_OF_MONTH, periodDays);
-        return cal.getTime();
+    // Whether the one extension extendBorrowPeriod allows has been used. Kept in the user state the journal records.
+    boolean hasExtendedBorrow() {
+        return hasExtendedBorrow;
     }
 
-    public BorrowRecord findBorrowRecord(Book book) {
-        for (BorrowRecord record : borrowedBooks) {
-            if (record.getBook().equals(book)) {
-                return record;
-            }
-        }
-        return null;
+    void setExtendedBorrow(boolean hasExtendedBorrow) {
+        this.hasExtendedBorrow = hasExtendedBorrow;
+    }
+
+    public Date calculateDueDate(Date borrowDate, int periodDays) {
+        return new Date(LoanDates.plusDays(borrowDate.getTime(), periodDays));
     }
 }
@@ -1,11 +1,24 @@
 package net.mooctest;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import java.util.Date;
 import java.io.PrintStream;
 
 public class LibraryTest {
+    // 很多用例断言控制台输出，默认的空日志汇不输出，这里统一切换到控制台
+    @Before
+    public void installConsoleLog() {
+        LibraryLog.setSink(new ConsoleLogSink());
+    }
+
+    @After
+    public void resetLog() {
+        LibraryLog.setSink(LogSink.NONE);
+    }
+
     // 1. User: 正常借阅书籍
     @Test
     public void testBorrowBook_WhenBookAvailable_ShouldSucceed() throws Exception {
@@ -3015,4 +3028,1451 @@ public class LibraryTest {
         // 至少应该在20%-80%范围内
         assertTrue("true的比例应该在合理范围", trueCount > 200 && trueCount < 800);
     }
+
+    /** ========================== Library 哈希索引 ========================== */
+    @Test
+    public void testLibrary_FindBookByIsbn_AndFindUserById() {
+        Library lib = new Library();
+        Book b = new Book("IDX_B", "A", "IDX-ISBN", BookType.GENERAL, 1);
+        RegularUser u = new RegularUser("IDX_U", "IDX-UID");
+        lib.addBook(b);
+        lib.registerUser(u);
+        assertSame(b, lib.findBookByIsbn("IDX-ISBN"));
+        assertSame(u, lib.findUserById("IDX-UID"));
+        assertNull(lib.findBookByIsbn("NOPE"));
+        assertNull(lib.findUserById("NOPE"));
+    }
+    @Test
+    public void testLibrary_AddBook_SameIsbnDifferentInstance_ShouldBeDuplicate() {
+        Library lib = new Library();
+        Book b1 = new Book("First", "A", "DUP-ISBN", BookType.GENERAL, 1);
+        Book b2 = new Book("Second", "A", "DUP-ISBN", BookType.GENERAL, 1);
+        lib.addBook(b1);
+        lib.addBook(b2);
+        assertEquals(b1, b2);
+        assertEquals(b1.hashCode(), b2.hashCode());
+        assertEquals(1, lib.getBooks().size());
+        assertSame(b1, lib.findBookByIsbn("DUP-ISBN"));
+        lib.registerUser(new RegularUser("U1", "DUP-UID"));
+        lib.registerUser(new VIPUser("U2", "DUP-UID"));
+        assertEquals(1, lib.getUsers().size());
+    }
+    @Test
+    public void testBook_NullIsbn_ShouldOnlyEqualItself() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Book n1 = new Book("N1", "A", null, BookType.GENERAL, 1);
+        Book n2 = new Book("N2", "A", null, BookType.GENERAL, 1);
+        assertNotEquals(n1, n2);
+        assertEquals(n1, n1);
+        VIPUser u = new VIPUser("N", "NULL-ISBN-U");
+        u.borrowBook(n1);
+        u.borrowBook(n2);
+        u.returnBook(n2);
+        assertNotNull(u.findBorrowRecord(n1)); // 归还n2不应结清n1的借阅
+        assertNull(u.findBorrowRecord(n2));
+        assertEquals(0, n1.getAvailableCopies());
+        assertEquals(1, n2.getAvailableCopies());
+        assertNotEquals(new RegularUser("X", null), new RegularUser("Y", null));
+    }
+
+    /** ========================== Library 批量导入 ========================== */
+    @Test
+    public void testLibrary_ImportBooks_ShouldDeduplicateByIsbn() {
+        Library lib = new Library();
+        lib.addBook(new Book("Existing", "A", "IMP-1", BookType.GENERAL, 1));
+        ImportSummary summary = lib.importBooks(java.util.stream.Stream.of(
+                new Book("Dup", "A", "IMP-1", BookType.GENERAL, 1),
+                new Book("New", "A", "IMP-2", BookType.JOURNAL, 2),
+                new Book("New again", "A", "IMP-2", BookType.JOURNAL, 2),
+                new Book("NoIsbn", "A", null, BookType.GENERAL, 1)), 4);
+        assertEquals(1, summary.getImported());
+        assertEquals(2, summary.getDuplicates());
+        assertEquals(1, summary.getRejected());
+        assertEquals(4, summary.getTotal());
+        assertEquals("Existing", lib.findBookByIsbn("IMP-1").getTitle());
+        assertEquals(2, lib.getBooks().size());
+    }
+    @Test
+    public void testCatalogLoader_ReadTsv_ShouldParseRows() {
+        String tsv = "# title\tauthor\tisbn\ttype\tcopies\n"
+                + "Dune\tHerbert\tTSV-1\tGENERAL\t3\n"
+                + "\n"
+                + "Nature\tVarious\tTSV-2\tJOURNAL\t1\n";
+        Library lib = new Library();
+        ImportSummary summary = lib.importBooks(CatalogLoader.readTsv(
+                new java.io.BufferedReader(new java.io.StringReader(tsv))));
+        assertEquals(2, summary.getImported());
+        Book dune = lib.findBookByIsbn("TSV-1");
+        assertEquals("Herbert", dune.getAuthor());
+        assertEquals(3, dune.getAvailableCopies());
+        assertEquals(BookType.JOURNAL, lib.findBookByIsbn("TSV-2").getBookType());
+        try {
+            CatalogLoader.parseLine("Bad\tRow\tX\tUNKNOWN\t1");
+            fail("应抛IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+        try {
+            CatalogLoader.parseLine("Too\tShort");
+            fail("应抛IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+    @Test
+    public void testCatalogLoader_ReadTsv_ShouldRejectMalformedRowsAndContinue() {
+        String tsv = "Dune\tHerbert\tTSV-3\tGENERAL\t3\n"
+                + "Bad\tRow\tTSV-4\tUNKNOWN\t1\n"
+                + "Too\tShort\n"
+                + "Nature\tVarious\tTSV-5\tJOURNAL\t1\n";
+        Library lib = new Library();
+        ImportSummary summary = lib.importBooks(CatalogLoader.readTsv(
+                new java.io.BufferedReader(new java.io.StringReader(tsv))));
+        assertEquals(2, summary.getImported());
+        assertEquals(2, summary.getRejected());
+        assertNotNull(lib.findBookByIsbn("TSV-5"));
+        assertNull(lib.findBookByIsbn("TSV-4"));
+    }
+
+    /** ========================== LibraryLog 日志汇 ========================== */
+    @Test
+    public void testLibraryLog_DefaultSink_ShouldBeSilentAndLazy() {
+        LibraryLog.setSink(null);
+        assertSame(LogSink.NONE, LibraryLog.getSink());
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        PrintStream old = System.out;
+        System.setOut(new PrintStream(out));
+        final int[] built = {0};
+        try {
+            Book book = new Book("Quiet", "A", "LOG-1", BookType.GENERAL, 1);
+            book.isAvailable();
+            LibraryLog.info(() -> { built[0]++; return "x"; });
+        } catch (Exception e) {
+            fail();
+        } finally {
+            System.setOut(old);
+        }
+        assertEquals("", out.toString());
+        assertEquals(0, built[0]);
+    }
+    @Test
+    public void testLibraryLog_ConsoleSink_ShouldFilterByLevel() {
+        LibraryLog.setSink(new ConsoleLogSink(LogLevel.WARN));
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        PrintStream old = System.out;
+        System.setOut(new PrintStream(out));
+        LibraryLog.info("info-line");
+        LibraryLog.debug(() -> "debug-line");
+        LibraryLog.warn(() -> "warn-line");
+        System.setOut(old);
+        String s = out.toString();
+        assertFalse(s.contains("info-line"));
+        assertFalse(s.contains("debug-line"));
+        assertTrue(s.contains("warn-line"));
+        assertTrue(LibraryLog.isEnabled(LogLevel.WARN));
+        assertFalse(LibraryLog.isEnabled(LogLevel.INFO));
+    }
+
+    /** ========================== Book 并发借还 ========================== */
+    @Test
+    public void testBook_ConcurrentBorrow_ShouldNeverOversell() throws Exception {
+        final int copies = 50;
+        final int threads = 8;
+        final int attemptsPerThread = 100;
+        final Book book = new Book("Hot", "A", "CAS-1", BookType.GENERAL, copies);
+        final java.util.concurrent.atomic.AtomicInteger borrowed = new java.util.concurrent.atomic.AtomicInteger();
+        final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        LibraryLog.setSink(LogSink.NONE);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    try {
+                        book.borrow();
+                        borrowed.incrementAndGet();
+                    } catch (Exception e) {
+                        // 已无库存
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(copies, borrowed.get());
+        assertEquals(0, book.getAvailableCopies());
+    }
+    @Test
+    public void testBook_ConcurrentReturn_ShouldNeverExceedTotal() throws Exception {
+        final Book book = new Book("Hot2", "A", "CAS-2", BookType.GENERAL, 20);
+        book.setAvailableCopies(0);
+        final java.util.concurrent.atomic.AtomicInteger returned = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+        LibraryLog.setSink(LogSink.NONE);
+        for (int i = 0; i < 100; i++) {
+            pool.execute(() -> {
+                try {
+                    book.returnBook();
+                    returned.incrementAndGet();
+                } catch (InvalidOperationException e) {
+                    // 已全部归还
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(20, returned.get());
+        assertEquals(20, book.getAvailableCopies());
+    }
+
+    /** ========================== User 分段锁并发 ========================== */
+    @Test
+    public void testUser_ConcurrentScoreAndFineUpdates_ShouldNotLoseUpdates() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        final int threads = 8;
+        final int perThread = 1000;
+        final RegularUser[] users = new RegularUser[4];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new RegularUser("STRIPE" + i, "STRIPE-" + i);
+            users[i].fines = threads * perThread;
+        }
+        final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    for (RegularUser u : users) {
+                        u.addScore(2);
+                        u.deductScore(1);
+                        u.payFine(1);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, java.util.concurrent.TimeUnit.SECONDS));
+        for (RegularUser u : users) {
+            assertEquals(100 + threads * perThread, u.getCreditScore());
+            assertEquals(0.0, u.getFines(), 0.0001);
+        }
+    }
+    @Test
+    public void testUser_ConcurrentBorrowSameUser_ShouldRespectLimit() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        final RegularUser user = new RegularUser("STRIPE_B", "STRIPE-B");
+        final Book[] books = new Book[40];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = new Book("SB" + i, "A", "SB-" + i, BookType.GENERAL, 1);
+        }
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+        for (final Book b : books) {
+            pool.execute(() -> {
+                try {
+                    user.borrowBook(b);
+                } catch (Exception e) {
+                    // 达到借阅上限
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(5, user.getBorrowedBooks().size());
+        assertEquals(105, user.getCreditScore());
+        int lent = 0;
+        for (Book b : books) {
+            lent += 1 - b.getAvailableCopies();
+        }
+        assertEquals(5, lent);
+        assertSame(UserLockStripes.lockFor("STRIPE-B"), user.lock());
+    }
+
+    /** ========================== 借阅记录索引 ========================== */
+    @Test
+    public void testUser_FindBorrowRecord_ShouldUseIndexAndKeepOrder() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        RegularUser user = new RegularUser("IDX", "IDX1");
+        Book[] books = new Book[300];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = new Book("IB" + i, "A", "IB-" + i, BookType.GENERAL, 1);
+            books[i].setAvailableCopies(0);
+            user.getBorrowedBooks().add(new BorrowRecord(books[i], user, new Date(), new Date(System.currentTimeMillis() + 24 * 3600 * 1000L)));
+        }
+        // 同一ISBN的另一个Book对象也能找到记录
+        assertSame(books[150], user.findBorrowRecord(new Book("X", "A", "IB-150", BookType.GENERAL, 1)).getBook());
+        for (int i = books.length - 1; i >= 0; i -= 2) {
+            user.returnBook(books[i]);
+        }
+        assertEquals(150, user.getBorrowedBooks().size());
+        assertNull(user.findBorrowRecord(books[299]));
+        assertSame(books[0], user.getBorrowedBooks().get(0).getBook());
+        assertSame(books[2], user.getBorrowedBooks().get(1).getBook());
+        int i = 0;
+        for (BorrowRecord r : user.getBorrowedBooks()) {
+            assertSame(books[i], r.getBook());
+            i += 2;
+        }
+    }
+    @Test
+    public void testUser_SameBookBorrowedTwice_ShouldReturnOldestFirst() throws Exception {
+        RegularUser user = new RegularUser("IDX", "IDX2");
+        Book book = new Book("DUP", "A", "DUP-1", BookType.GENERAL, 2);
+        BorrowRecord first = new BorrowRecord(book, user, new Date(), new Date());
+        BorrowRecord second = new BorrowRecord(book, user, new Date(), new Date());
+        user.getBorrowedBooks().add(first);
+        user.getBorrowedBooks().add(second);
+        assertSame(first, user.findBorrowRecord(book));
+        user.getBorrowedBooks().remove(first);
+        assertSame(second, user.findBorrowRecord(book));
+        java.util.Iterator<BorrowRecord> it = user.getBorrowedBooks().iterator();
+        it.next();
+        it.remove();
+        assertNull(user.findBorrowRecord(book));
+        assertTrue(user.getBorrowedBooks().isEmpty());
+    }
+
+    /** ========================== 预约队列索引堆 ========================== */
+    @Test
+    public void testReservationQueue_RemoveAndPoll_ShouldMatchPriorityQueue() {
+        LibraryLog.setSink(LogSink.NONE);
+        Book book = new Book("RQ", "A", "RQ-1", BookType.GENERAL, 1);
+        java.util.Comparator<Reservation> cmp = java.util.Comparator.comparingInt(Reservation::getPriority);
+        ReservationQueue queue = new ReservationQueue(cmp);
+        java.util.PriorityQueue<Reservation> expected = new java.util.PriorityQueue<>(cmp);
+        java.util.List<Reservation> all = new java.util.ArrayList<>();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 2000; i++) {
+            RegularUser u = new RegularUser("RQ" + i, "RQ-U" + i);
+            u.creditScore = 50 + random.nextInt(100);
+            Reservation r = new Reservation(book, u);
+            all.add(r);
+            queue.add(r);
+            expected.add(r);
+        }
+        assertFalse(queue.offer(all.get(0)));
+        for (int i = 0; i < 1000; i++) {
+            Reservation r = all.get(random.nextInt(all.size()));
+            assertEquals(expected.remove(r), queue.remove(r));
+        }
+        assertEquals(expected.size(), queue.size());
+        while (!expected.isEmpty()) {
+            assertEquals(expected.poll().getPriority(), queue.poll().getPriority());
+        }
+        assertNull(queue.poll());
+    }
+    @Test
+    public void testReservationQueue_IteratorRemove_ShouldVisitEveryElementOnce() {
+        LibraryLog.setSink(LogSink.NONE);
+        Book book = new Book("RQI", "A", "RQI-1", BookType.GENERAL, 1);
+        ReservationQueue queue = new ReservationQueue(java.util.Comparator.comparingInt(Reservation::getPriority));
+        for (int i = 0; i < 200; i++) {
+            RegularUser u = new RegularUser("RQI" + i, "RQI-U" + i);
+            u.creditScore = 200 - i;
+            queue.add(new Reservation(book, u));
+        }
+        java.util.Set<Reservation> seen = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+        java.util.Iterator<Reservation> it = queue.iterator();
+        int n = 0;
+        while (it.hasNext()) {
+            Reservation r = it.next();
+            assertTrue(seen.add(r));
+            if (n++ % 3 == 0) {
+                it.remove();
+                assertFalse(queue.contains(r));
+            }
+        }
+        assertEquals(200, seen.size());
+        int last = Integer.MIN_VALUE;
+        while (!queue.isEmpty()) {
+            int p = queue.poll().getPriority();
+            assertTrue(p >= last);
+            last = p;
+        }
+    }
+
+    /** ========================== 批量预约处理 ========================== */
+    @Test
+    public void testLibrary_BatchProcessReservations_ShouldDrainOneHoldPerCopy() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Library lib = new Library();
+        java.util.List<Book> books = new java.util.ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Book b = new Book("BR" + i, "A", "BR-" + i, BookType.GENERAL, 3);
+            for (int j = 0; j < 5; j++) {
+                RegularUser u = new RegularUser("BRU", "BR-U" + i + "-" + j);
+                if (j == 0) {
+                    u.creditScore = 60; // 数值最小，最先出队
+                    u.setAccountStatus(AccountStatus.FROZEN);
+                }
+                b.addReservation(new Reservation(b, u));
+            }
+            books.add(b);
+        }
+        Book unavailable = new Book("BRX", "A", "BR-X", BookType.GENERAL, 0);
+        unavailable.addReservation(new Reservation(unavailable, new RegularUser("BRX", "BR-UX")));
+        books.add(unavailable);
+        books.add(books.get(0)); // 重复的书只处理一次
+
+        ReservationSummary summary = lib.processReservations(books);
+
+        assertEquals(51, summary.getBooks());
+        assertEquals(50 * 3, summary.getFulfilled());
+        assertEquals(50, summary.getFailed());
+        for (int i = 0; i < 50; i++) {
+            Book b = books.get(i);
+            assertEquals(0, b.getAvailableCopies());
+            assertEquals(1, b.getReservationQueue().size());
+        }
+        assertEquals(1, unavailable.getReservationQueue().size());
+    }
+
+    @Test
+    public void testLibrary_BatchProcessReservations_ShouldTolerateConcurrentReprioritize() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Library lib = new Library();
+        java.util.List<Book> books = new java.util.ArrayList<>();
+        java.util.List<RegularUser> users = new java.util.ArrayList<>();
+        for (int j = 0; j < 5; j++) {
+            users.add(new RegularUser("CRU", "CR-U" + j));
+        }
+        for (int i = 0; i < 40; i++) {
+            Book b = new Book("CR" + i, "A", "CR-" + i, BookType.GENERAL, 3);
+            for (RegularUser u : users) {
+                u.reserveBook(b);
+            }
+            books.add(b);
+        }
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread scorer = new Thread(() -> {
+            for (int n = 0; !done.get(); n++) {
+                RegularUser u = users.get(n % users.size());
+                if (n % 2 == 0) {
+                    u.addScore(3);
+                } else {
+                    u.deductScore(3);
+                }
+            }
+        });
+        scorer.start();
+        ReservationSummary summary = lib.processReservations(books);
+        done.set(true);
+        scorer.join(5000);
+
+        int queued = 0;
+        for (Book b : books) {
+            queued += b.reservationCount();
+        }
+        assertEquals(40 * 5, summary.getFulfilled() + summary.getFailed() + queued); // 每个预约恰好出队一次或仍在队列中
+        int held = 0;
+        for (RegularUser u : users) {
+            held += u.reservations.size(); // 已出队的预约不再留在用户名下
+        }
+        assertEquals(queued, held);
+    }
+
+    /** ========================== 异步通知分发 ========================== */
+    // 阻塞在闸门上的通知服务，用来把工作线程占满
+    private static class GatedNotificationService extends NotificationService {
+        final java.util.concurrent.CountDownLatch gate = new java.util.concurrent.CountDownLatch(1);
+        final java.util.concurrent.CountDownLatch started = new java.util.concurrent.CountDownLatch(1); // 工作线程已取走第一条
+        final java.util.concurrent.atomic.AtomicInteger sent = new java.util.concurrent.atomic.AtomicInteger();
+        final java.util.Set<String> threads = java.util.concurrent.ConcurrentHashMap.newKeySet();
+        @Override
+        public void sendNotification(User user, String message) {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            threads.add(Thread.currentThread().getName());
+            sent.incrementAndGet();
+        }
+    }
+    @Test
+    public void testNotificationDispatcher_Block_ShouldDeliverEverything() throws Exception {
+        GatedNotificationService service = new GatedNotificationService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(service, 2, 4, OverflowPolicy.BLOCK);
+        RegularUser u = new RegularUser("ND", "ND1");
+        java.util.List<java.util.concurrent.CompletableFuture<Void>> futures = new java.util.ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(dispatcher.dispatch(u, "m" + i));
+        }
+        assertEquals(4, dispatcher.getPending());
+        Thread producer = new Thread(() -> futures.add(dispatcher.dispatch(u, "late")));
+        producer.start();
+        awaitBlocked(producer); // 队列已满，提交方被阻塞
+        service.gate.countDown();
+        producer.join(5000);
+        assertTrue(dispatcher.shutdown(5, java.util.concurrent.TimeUnit.SECONDS));
+        java.util.concurrent.CompletableFuture.allOf(futures.toArray(new java.util.concurrent.CompletableFuture[0])).get(5, java.util.concurrent.TimeUnit.SECONDS);
+        assertEquals(7, service.sent.get());
+        assertEquals(0, dispatcher.getDropped());
+        for (String t : service.threads) {
+            assertTrue(t.startsWith("notification-"));
+        }
+    }
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue("线程未阻塞", thread.isAlive() && System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+    @Test
+    public void testNotificationDispatcher_Block_ShouldFailTaskQueuedAfterShutdown() throws Exception {
+        GatedNotificationService service = new GatedNotificationService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(service, 1, 1, OverflowPolicy.BLOCK);
+        RegularUser u = new RegularUser("ND", "ND3");
+        dispatcher.dispatch(u, "a");
+        assertTrue(service.started.await(5, java.util.concurrent.TimeUnit.SECONDS));
+        dispatcher.dispatch(u, "b");
+        java.util.concurrent.atomic.AtomicReference<java.util.concurrent.CompletableFuture<Void>> late =
+                new java.util.concurrent.atomic.AtomicReference<>();
+        Thread producer = new Thread(() -> late.set(dispatcher.dispatch(u, "late")));
+        producer.start();
+        awaitBlocked(producer);
+        assertFalse(dispatcher.shutdown(0, java.util.concurrent.TimeUnit.MILLISECONDS));
+        service.gate.countDown();
+        producer.join(5000);
+        assertTrue(dispatcher.shutdown(5, java.util.concurrent.TimeUnit.SECONDS));
+        assertTrue(late.get().isDone()); // 要么已送达，要么以异常结束，不会永远挂起
+    }
+    @Test
+    public void testNotificationDispatcher_DropAndCallerRuns_WhenQueueFull() throws Exception {
+        GatedNotificationService service = new GatedNotificationService();
+        NotificationDispatcher dropping = new NotificationDispatcher(service, 1, 1, OverflowPolicy.DROP);
+        RegularUser u = new RegularUser("ND", "ND2");
+        dropping.dispatch(u, "a");
+        assertTrue(service.started.await(5, java.util.concurrent.TimeUnit.SECONDS)); // 等工作线程取走第一条
+        dropping.dispatch(u, "b");
+        java.util.concurrent.CompletableFuture<Void> dropped = dropping.dispatch(u, "c");
+        assertTrue(dropped.isCompletedExceptionally());
+        assertEquals(1, dropping.getDropped());
+        service.gate.countDown();
+        dropping.close();
+        assertEquals(2, service.sent.get());
+
+        GatedNotificationService open = new GatedNotificationService();
+        open.gate.countDown();
+        try (NotificationDispatcher callerRuns = new NotificationDispatcher(open, 1, 1, OverflowPolicy.CALLER_RUNS)) {
+            for (int i = 0; i < 100; i++) {
+                callerRuns.dispatch(u, "m" + i);
+            }
+        }
+        assertEquals(100, open.sent.get());
+    }
+    @Test
+    public void testLibrary_ProcessReservations_WithDispatcher_ShouldNotifyInBackground() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        GatedNotificationService service = new GatedNotificationService();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(service, 1, 16, OverflowPolicy.BLOCK);
+        Library lib = new Library();
+        lib.setNotificationDispatcher(dispatcher);
+        Book book = new Book("NDL", "A", "NDL-1", BookType.GENERAL, 3);
+        for (int i = 0; i < 3; i++) {
+            book.addReservation(new Reservation(book, new RegularUser("NDL", "NDL-U" + i)));
+        }
+        ReservationSummary summary = lib.processReservations(java.util.Collections.singletonList(book));
+        assertEquals(3, summary.getFulfilled());
+        assertEquals(0, service.sent.get()); // 通知仍在排队，借阅已完成
+        service.gate.countDown();
+        assertTrue(dispatcher.shutdown(5, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(3, service.sent.get());
+    }
+
+    /** ========================== 通知按渠道批量发送 ========================== */
+    @Test
+    public void testNotificationBatcher_ShouldGroupPerChannelAndFlushBySize() {
+        LibraryLog.setSink(LogSink.NONE);
+        InMemoryBatchChannel email = new InMemoryBatchChannel();
+        InMemoryBatchChannel sms = new InMemoryBatchChannel();
+        InMemoryBatchChannel app = new InMemoryBatchChannel();
+        java.util.Map<NotificationChannel, BatchChannel> channels = new java.util.EnumMap<>(NotificationChannel.class);
+        channels.put(NotificationChannel.EMAIL, email);
+        channels.put(NotificationChannel.SMS, sms);
+        channels.put(NotificationChannel.APP, app);
+        NotificationBatcher batcher = new NotificationBatcher(channels, 100, 0);
+        for (int i = 0; i < 250; i++) {
+            RegularUser u = new RegularUser("NB", "NB" + i);
+            if (i % 2 == 0) {
+                u.setEmail("nb" + i + "@test.com");
+            } else if (i % 5 == 0) {
+                u.setPhoneNumber("1380000" + i);
+            }
+            assertTrue(batcher.submit(u, "overdue"));
+        }
+        RegularUser black = new RegularUser("NB", "NB-B");
+        black.setAccountStatus(AccountStatus.BLACKLISTED);
+        assertFalse(batcher.submit(black, "overdue"));
+        assertEquals(1, email.getBatches().size()); // 125封邮件：满100条发一批，余25条待发
+        assertEquals(100, email.getBatches().get(0).size());
+        assertEquals(0, sms.getDelivered());
+        batcher.close();
+        assertEquals(125, email.getDelivered());
+        assertEquals(25, sms.getDelivered());
+        assertEquals(100, app.getDelivered());
+        assertEquals(250, batcher.getDelivered());
+        for (Notification n : sms.getBatches().get(0)) {
+            assertEquals(NotificationChannel.SMS, n.getChannel());
+            assertEquals(n.getUser().getPhoneNumber(), n.getAddress());
+        }
+    }
+    @Test
+    public void testNotificationBatcher_FailedBatch_ShouldFallBackAndFlushByTime() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        InMemoryBatchChannel email = new InMemoryBatchChannel();
+        InMemoryBatchChannel app = new InMemoryBatchChannel();
+        email.setFailing(true);
+        java.util.Map<NotificationChannel, BatchChannel> channels = new java.util.EnumMap<>(NotificationChannel.class);
+        channels.put(NotificationChannel.EMAIL, email);
+        channels.put(NotificationChannel.APP, app);
+        NotificationBatcher batcher = new NotificationBatcher(channels, 1000, 20);
+        for (int i = 0; i < 10; i++) {
+            RegularUser u = new RegularUser("NBF", "NBF" + i);
+            u.setEmail("f" + i + "@test.com");
+            if (i < 3) {
+                u.setPhoneNumber("139" + i); // SMS未配置，继续回退到站内信
+            }
+            batcher.submit(u, "due");
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (app.getDelivered() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, app.getDelivered());
+        assertEquals(0, email.getDelivered());
+        batcher.close();
+        assertEquals(10, batcher.getDelivered());
+        assertEquals(0, batcher.getFailed());
+    }
+
+    @Test
+    public void testLibrary_WithBatcher_ShouldBatchReservationAndFreezeNotices() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-06-01T10:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            InMemoryBatchChannel app = new InMemoryBatchChannel();
+            java.util.Map<NotificationChannel, BatchChannel> channels = new java.util.EnumMap<>(NotificationChannel.class);
+            channels.put(NotificationChannel.APP, app);
+            Library lib = new Library();
+            try (NotificationBatcher batcher = new NotificationBatcher(channels, 100, 0)) {
+                lib.setNotificationBatcher(batcher);
+                Book book = new Book("NBL", "A", "NBL-1", BookType.GENERAL, 3);
+                for (int i = 0; i < 3; i++) {
+                    VIPUser u = new VIPUser("NBL", "NBL-U" + i);
+                    lib.registerUser(u);
+                    book.addReservation(new Reservation(book, u));
+                }
+                Book rare = new Book("NBR", "A", "NBL-R", BookType.RARE, 1);
+                lib.findUserById("NBL-U0").borrowBook(rare);
+                assertEquals(3, lib.processReservations(java.util.Collections.singletonList(book)).getFulfilled());
+                clock.advanceDays(40);
+                assertEquals(1, lib.sweepOverdue(LibraryClock.millis()).getFrozenUserIds().size());
+                assertEquals(0, app.getDelivered()); // 仍在缓冲区，由批处理器统一发送
+            }
+            assertEquals(4, app.getDelivered()); // 三条预约到书通知 + 一条冻结通知
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+    @Test
+    public void testNotificationService_DefaultSendBatch_ShouldSendEachNotification() throws Exception {
+        GatedNotificationService service = new GatedNotificationService();
+        service.gate.countDown();
+        RegularUser u = new RegularUser("NS", "NS1");
+        service.batchChannel(NotificationChannel.APP).deliver(java.util.Arrays.asList(
+                new Notification(u, NotificationChannel.APP, null, "a"),
+                new Notification(u, NotificationChannel.APP, null, "b")));
+        assertEquals(2, service.sent.get());
+    }
+
+    /** ========================== 预约优先级增量计算 ========================== */
+    @Test
+    public void testReservation_PriorityShouldUseRunningLateReturnCount() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        RegularUser user = new RegularUser("LATE", "LATE1");
+        long day = 24L * 3600 * 1000;
+        for (int i = 0; i < 4; i++) {
+            Book b = new Book("LB" + i, "A", "LB-" + i, BookType.GENERAL, 1);
+            b.setAvailableCopies(0);
+            long borrowed = System.currentTimeMillis() - 20 * day;
+            // 前两本逾期1天归还（罚金1元），后两本按期归还
+            long due = i < 2 ? System.currentTimeMillis() - day - 1000 : System.currentTimeMillis() + day;
+            user.getBorrowedBooks().add(new BorrowRecord(b, user, new Date(borrowed), new Date(due)));
+            user.returnBook(b);
+        }
+        assertTrue(user.getBorrowedBooks().isEmpty());
+        assertEquals(2, user.getLateReturns());
+        int score = user.getCreditScore();
+        Reservation r = new Reservation(new Book("LR", "A", "LR-1", BookType.GENERAL, 1), user);
+        assertEquals(score - 10, r.getPriority());
+    }
+
+    /** ========================== 信用分变化后预约重排 ========================== */
+    @Test
+    public void testReservation_CreditChange_ShouldReorderQueuedHolds() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Book book = new Book("RK", "A", "RK-1", BookType.GENERAL, 0);
+        RegularUser a = new RegularUser("RKA", "RK-A");
+        RegularUser b = new RegularUser("RKB", "RK-B");
+        RegularUser c = new RegularUser("RKC", "RK-C");
+        a.creditScore = 100;
+        b.creditScore = 80;
+        c.creditScore = 60;
+        a.reserveBook(book);
+        b.reserveBook(book);
+        c.reserveBook(book);
+        assertSame(c, book.getReservationQueue().peek().getUser());
+
+        a.deductScore(45);
+        new CreditRepairService().repairCredit(c, 500);
+        assertEquals(55, a.findReservation(book).getPriority());
+        assertEquals(110, c.findReservation(book).getPriority());
+
+        assertSame(a, book.getReservationQueue().poll().getUser());
+        assertSame(b, book.getReservationQueue().poll().getUser());
+        assertSame(c, book.getReservationQueue().poll().getUser());
+    }
+
+    /** ========================== java.time 日期引擎 ========================== */
+    @Test
+    public void testLoanDates_PlusDays_ShouldMatchCalendarAcrossDst() {
+        java.time.ZoneId zone = java.time.ZoneId.of("America/New_York");
+        java.util.Calendar cal = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone(zone));
+        cal.set(2024, java.util.Calendar.MARCH, 1, 10, 30, 0);
+        cal.set(java.util.Calendar.MILLISECOND, 0);
+        for (int i = 0; i < 400; i++) {
+            long start = cal.getTimeInMillis();
+            java.util.Calendar expect = (java.util.Calendar) cal.clone();
+            expect.add(java.util.Calendar.DAY_OF_MONTH, 14);
+            assertEquals(expect.getTimeInMillis(), LoanDates.plusDays(start, 14, zone));
+            cal.add(java.util.Calendar.HOUR_OF_DAY, 23);
+        }
+        assertEquals(3 * LoanDates.MILLIS_PER_DAY + 5, LoanDates.plusDays(5, 3, java.time.ZoneOffset.UTC));
+    }
+    @Test
+    public void testBorrowReturn_WithFixedClock_ShouldBeDeterministic() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.time.Instant start = java.time.Instant.parse("2025-03-01T09:00:00Z");
+        try {
+            LibraryClock.setClock(java.time.Clock.fixed(start, java.time.ZoneOffset.UTC));
+            RegularUser user = new RegularUser("CLK", "CLK1");
+            Book book = new Book("CLK", "A", "CLK-1", BookType.JOURNAL, 1);
+            user.borrowBook(book);
+            BorrowRecord record = user.findBorrowRecord(book);
+            assertEquals(start.toEpochMilli(), record.getBorrowDate().getTime());
+            assertEquals(java.time.Instant.parse("2025-03-15T09:00:00Z").toEpochMilli(), record.getDueMillis());
+
+            LibraryClock.setClock(java.time.Clock.fixed(java.time.Instant.parse("2025-03-18T10:00:00Z"), java.time.ZoneOffset.UTC));
+            user.returnBook(book);
+            assertEquals(6.0, record.getFineAmount(), 0.0001); // 逾期3天 * 期刊2元
+            assertEquals(6.0, user.getFines(), 0.0001);
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+
+    /** ========================== 模拟时钟 ========================== */
+    @Test
+    public void testSimulatedClock_ReplayOverdueCycles() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-01-01T08:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            Book book = new Book("SIM", "A", "SIM-1", BookType.GENERAL, 100);
+            VIPUser[] users = new VIPUser[100];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = new VIPUser("SIM" + i, "SIM-U" + i);
+            }
+            // 模拟三个月：每天所有人借一本，VIP借期30天，第32天归还 -> 逾期2天罚2元
+            for (int cycle = 0; cycle < 3; cycle++) {
+                for (VIPUser u : users) {
+                    u.borrowBook(book);
+                }
+                clock.advanceDays(32);
+                for (VIPUser u : users) {
+                    u.returnBook(book);
+                }
+            }
+            for (VIPUser u : users) {
+                assertEquals(6.0, u.getFines(), 0.0001);
+                assertEquals(3, u.getLateReturns());
+            }
+            assertEquals(java.time.Instant.parse("2025-04-07T08:00:00Z"), clock.instant());
+            assertSame(clock, clock.withZone(java.time.ZoneOffset.UTC));
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+    @Test
+    public void testSimulatedClock_Accelerated_ShouldRunFasterThanRealTime() throws Exception {
+        SimulatedClock clock = SimulatedClock.accelerated(java.time.Instant.EPOCH, java.time.ZoneOffset.UTC, 86400);
+        java.time.Clock shifted = clock.withZone(java.time.ZoneId.of("Asia/Shanghai"));
+        Thread.sleep(20);
+        assertTrue(clock.millis() >= 20L * 86400); // 20ms真实时间 >= 28.8分钟模拟时间
+        clock.advanceDays(1);
+        assertTrue(shifted.millis() >= LoanDates.MILLIS_PER_DAY);
+        try {
+            clock.advance(java.time.Duration.ofSeconds(-1));
+            fail();
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** ========================== 罚金策略 ========================== */
+    @Test
+    public void testFinePolicy_StandardTableAndRuntimeOverride() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        FinePolicy standard = FinePolicy.standard();
+        assertEquals(1.0, standard.dailyRate(BookType.GENERAL, AccountStatus.ACTIVE, false), 0.0001);
+        assertEquals(1.0, standard.dailyRate(BookType.EBOOK, AccountStatus.FROZEN, false), 0.0001);
+        assertEquals(10.0, standard.dailyRate(BookType.RARE, AccountStatus.BLACKLISTED, false), 0.0001);
+        assertEquals(54.0, standard.dailyRate(BookType.JOURNAL, AccountStatus.BLACKLISTED, true), 0.0001);
+        assertEquals(1.0, standard.dailyRate(null, null, false), 0.0001);
+
+        Book book = new Book("FP", "A", "FP-1", BookType.RARE, 1);
+        RegularUser user = new RegularUser("FP", "FP1");
+        long due = System.currentTimeMillis() - 3 * LoanDates.MILLIS_PER_DAY - 1000;
+        BorrowRecord record = new BorrowRecord(book, user, due - LoanDates.MILLIS_PER_DAY, due);
+        java.util.Properties props = new java.util.Properties();
+        props.setProperty("rate.RARE", "6");
+        props.setProperty("multiplier.FROZEN", "1.5");
+        props.setProperty("damageSurcharge", "40");
+        try {
+            FinePolicy.install(FinePolicy.fromProperties(props));
+            record.setReturnDate(new Date());
+            assertEquals(18.0, record.getFineAmount(), 0.0001);
+            user.setAccountStatus(AccountStatus.FROZEN);
+            book.setDamaged(true);
+            assertEquals(3 * (6 * 1.5 + 40), record.calculateFine(), 0.0001);
+            assertEquals(18.0, record.getFineAmount(), 0.0001); // 已缓存的罚金不变
+        } finally {
+            FinePolicy.install(null);
+        }
+        try {
+            props.setProperty("rate.RARE", "abc");
+            FinePolicy.fromProperties(props);
+            fail();
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** ========================== 逾期夜间扫描 ========================== */
+    @Test
+    public void testLibrary_SweepOverdue_ShouldAccrueFinesAndFreeze() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-06-01T10:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            Library lib = new Library();
+            Book general = new Book("SW", "A", "SW-1", BookType.GENERAL, 1000);
+            Book rare = new Book("SWR", "A", "SW-R", BookType.RARE, 1000);
+            for (int i = 0; i < 200; i++) {
+                VIPUser u = new VIPUser("SW" + i, "SW-U" + i);
+                lib.registerUser(u);
+                u.borrowBook(general);
+                if (i % 4 == 0) {
+                    u.borrowBook(rare);
+                }
+            }
+            // VIP借期30天；第40天扫描 -> 逾期10天
+            clock.advanceDays(40);
+            OverdueReport report = lib.sweepOverdue(LibraryClock.millis());
+            assertEquals(200, report.getUsers());
+            assertEquals(250, report.getLoans());
+            assertEquals(250, report.getOverdueLoans());
+            assertEquals(200 * 10 + 50 * 50, report.getAccruedFines(), 0.0001);
+            // 只有借了珍本的用户累计罚金 10 + 50 > 50 被冻结
+            assertEquals(50, report.getFrozenUserIds().size());
+            assertEquals(AccountStatus.FROZEN, lib.findUserById("SW-U0").getAccountStatus());
+            assertEquals(AccountStatus.ACTIVE, lib.findUserById("SW-U1").getAccountStatus());
+            assertEquals(0.0, lib.findUserById("SW-U1").getFines(), 0.0001); // 扫描不直接计入罚金
+
+            OverdueReport again = lib.sweepOverdue(LibraryClock.millis());
+            assertTrue(again.getFrozenUserIds().isEmpty());
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+
+    @Test
+    public void testLibrary_SweepOverdue_ShouldSkipReturnedRecords() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-06-01T10:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            Library lib = new Library();
+            Book rare = new Book("SWH", "A", "SW-H", BookType.RARE, 5);
+            VIPUser u = new VIPUser("SWH", "SW-UH");
+            lib.registerUser(u);
+            long start = LibraryClock.millis();
+            BorrowRecord history = new BorrowRecord(rare, u, start, start + java.util.concurrent.TimeUnit.DAYS.toMillis(30));
+            history.setReturnDate(start + java.util.concurrent.TimeUnit.DAYS.toMillis(35)); // 已逾期归还的历史记录
+            u.borrowedBooks.add(history);
+            clock.advanceDays(90);
+            OverdueReport report = lib.sweepOverdue(LibraryClock.millis());
+            assertEquals(0, report.getLoans());
+            assertEquals(0, report.getOverdueLoans());
+            assertEquals(0.0, report.getAccruedFines(), 0.0001);
+            assertEquals(AccountStatus.ACTIVE, u.getAccountStatus());
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+
+    /** ========================== 到期日索引 ========================== */
+    @Test
+    public void testDueDateIndex_TracksBorrowExtendAndReturn() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-02-01T12:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            Library lib = new Library();
+            DueDateIndex index = lib.getDueDateIndex();
+            Book book = new Book("DI", "A", "DI-1", BookType.GENERAL, 100);
+            RegularUser early = new RegularUser("DI", "DI-R0");
+            early.borrowBook(book); // 注册前借阅，注册时补录
+            lib.registerUser(early);
+            VIPUser[] vips = new VIPUser[10];
+            for (int i = 0; i < vips.length; i++) {
+                vips[i] = new VIPUser("DI" + i, "DI-V" + i);
+                lib.registerUser(vips[i]);
+                vips[i].borrowBook(book);
+                clock.advanceDays(1);
+            }
+            assertEquals(11, index.size());
+            long start = index.epochDay(java.time.Instant.parse("2025-02-01T00:00:00Z").toEpochMilli());
+            assertEquals(1, index.dueOn(start + 14).size());
+            assertSame(early, index.dueOn(start + 14).get(0).getUser());
+            assertEquals(1, index.dueOn(start + 30).size());
+            assertEquals(10, index.dueBetween(start + 30, start + 39).size());
+
+            vips[0].extendBorrowPeriod(book); // 续借7天，与 vips[7] 同一天到期
+            assertTrue(index.dueOn(start + 30).isEmpty());
+            assertEquals(2, index.dueOn(start + 37).size());
+
+            vips[1].returnBook(book);
+            assertEquals(10, index.size());
+            assertTrue(index.dueOn(start + 31).isEmpty());
+
+            assertEquals(1, index.overdueOn(start + 15).size());
+            clock.advanceDays(19); // 今天 = start + 29
+            assertEquals(0, lib.sendDueReminders(LibraryClock.millis(), 1));
+            assertEquals(1, lib.sendDueReminders(LibraryClock.millis(), 3));
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+
+    /** ========================== 批量自动续借 ========================== */
+    @Test
+    public void testLibrary_AutoRenewDueLoans_ShouldReturnResultCodes() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        SimulatedClock clock = SimulatedClock.manual(java.time.Instant.parse("2025-05-01T09:00:00Z"), java.time.ZoneOffset.UTC);
+        try {
+            LibraryClock.setClock(clock);
+            Library lib = new Library();
+            Book free = new Book("AR", "A", "AR-1", BookType.GENERAL, 1000);
+            Book held = new Book("ARH", "A", "AR-H", BookType.GENERAL, 1000);
+            held.addReservation(new Reservation(held, new RegularUser("W", "AR-W")));
+            java.util.List<RegularUser> users = new java.util.ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                RegularUser u = new RegularUser("AR" + i, "AR-U" + i);
+                lib.registerUser(u);
+                u.borrowBook(i % 10 == 1 ? held : free);
+                users.add(u);
+            }
+            for (int i = 0; i < 100; i++) {
+                if (i % 10 == 2) {
+                    users.get(i).setAccountStatus(AccountStatus.FROZEN);
+                } else if (i % 10 == 3) {
+                    users.get(i).creditScore = 59;
+                }
+            }
+            RegularUser late = new RegularUser("ARL", "AR-L");
+            lib.registerUser(late);
+            clock.advanceDays(10);
+            late.borrowBook(free); // 到期日在窗口之外
+
+            clock.advanceDays(3); // 明天到期
+            java.util.Map<RenewalResult, Integer> counts = lib.autoRenewDueLoans(LibraryClock.millis(), 1);
+            assertEquals(Integer.valueOf(70), counts.get(RenewalResult.RENEWED));
+            assertEquals(Integer.valueOf(10), counts.get(RenewalResult.RESERVED));
+            assertEquals(Integer.valueOf(10), counts.get(RenewalResult.ACCOUNT_NOT_ACTIVE));
+            assertEquals(Integer.valueOf(10), counts.get(RenewalResult.LOW_CREDIT));
+            long renewedDue = java.time.Instant.parse("2025-05-29T09:00:00Z").toEpochMilli();
+            assertEquals(renewedDue, users.get(0).findBorrowRecord(free).getDueMillis());
+            assertEquals(70, lib.getDueDateIndex().dueOn(lib.getDueDateIndex().epochDay(renewedDue)).size());
+
+            BorrowRecord returned = users.get(0).findBorrowRecord(free);
+            users.get(0).returnBook(free);
+            assertArrayEquals(new RenewalResult[] {RenewalResult.NOT_BORROWED},
+                new AutoRenewalService().renewAll(java.util.Collections.singletonList(returned)));
+        } finally {
+            LibraryClock.setClock(null);
+        }
+    }
+
+    /** ========================== 无异常借还结果码 ========================== */
+    @Test
+    public void testUser_TryBorrowAndTryReturn_ShouldReturnResultCodes() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Book general = new Book("TB", "A", "TB-1", BookType.GENERAL, 1);
+        Book rare = new Book("TBR", "A", "TB-R", BookType.RARE, 1);
+        RegularUser regular = new RegularUser("R", "TB-U1");
+        VIPUser vip = new VIPUser("V", "TB-U2");
+
+        assertEquals(BorrowResult.RARE_BOOK_RESTRICTED, regular.tryBorrow(rare));
+        assertEquals(BorrowResult.BORROWED, vip.tryBorrow(rare));
+        assertEquals(BorrowResult.BORROWED, regular.tryBorrow(general));
+        assertEquals(BorrowResult.BOOK_UNAVAILABLE, vip.tryBorrow(general));
+        assertEquals(0, general.getAvailableCopies());
+
+        assertEquals(ReturnResult.NOT_BORROWED, vip.tryReturn(general));
+        assertEquals(ReturnResult.RETURNED, regular.tryReturn(general));
+        assertEquals(1, general.getAvailableCopies());
+        assertEquals(ReturnResult.RETURNED, vip.tryReturn(rare));
+
+        regular.fines = 60;
+        assertEquals(BorrowResult.FINES_TOO_HIGH, regular.tryBorrow(general));
+        assertEquals(AccountStatus.FROZEN, regular.getAccountStatus());
+        assertEquals(BorrowResult.ACCOUNT_FROZEN, regular.tryBorrow(general));
+        vip.creditScore = 40;
+        assertEquals(BorrowResult.LOW_CREDIT, vip.tryBorrow(general));
+
+        // 抛异常的接口保持原有的异常类型
+        try {
+            regular.borrowBook(general);
+            fail();
+        } catch (AccountFrozenException e) {
+            assertEquals("The account is frozen and books cannot be borrowed.", e.getMessage());
+        }
+        try {
+            vip.returnBook(general);
+            fail();
+        } catch (InvalidOperationException e) {
+            assertEquals("This book has not been borrowed.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUser_DefaultTryBorrow_ShouldNotFoldFailuresIntoUnavailable() {
+        Book book = new Book("TBD", "A", "TB-D", BookType.GENERAL, 1);
+        User invalid = new User("I", "TB-U3", UserType.REGULAR) {
+            @Override public void borrowBook(Book b) throws Exception { throw new InvalidOperationException("no"); }
+            @Override public void returnBook(Book b) {}
+        };
+        User broken = new User("B", "TB-U4", UserType.REGULAR) {
+            @Override public void borrowBook(Book b) throws Exception { throw new Exception("fail!"); }
+            @Override public void returnBook(Book b) {}
+        };
+        User unavailable = new User("U", "TB-U5", UserType.REGULAR) {
+            @Override public void borrowBook(Book b) throws Exception { throw new BookNotAvailableException("gone"); }
+            @Override public void returnBook(Book b) {}
+        };
+        assertEquals(BorrowResult.INVALID_OPERATION, invalid.tryBorrow(book));
+        assertEquals(BorrowResult.FAILED, broken.tryBorrow(book));
+        assertEquals(BorrowResult.BOOK_UNAVAILABLE, unavailable.tryBorrow(book));
+    }
+
+    /** ========================== 预写日志与快照持久化 ========================== */
+    @Test
+    public void testLibraryStore_ShouldRestoreStateFromSnapshotAndJournal() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("library-store");
+        try {
+            LibraryStore store = new LibraryStore(dir);
+            Library lib = store.open();
+            lib.addBook(new Book("WAL", "A", "WAL-1", BookType.GENERAL, 1));
+            lib.registerUser(new RegularUser("R", "WAL-U1"));
+            lib.registerUser(new VIPUser("V", "WAL-U2"));
+            User regular = lib.findUserById("WAL-U1");
+            User vip = lib.findUserById("WAL-U2");
+            Book book = lib.findBookByIsbn("WAL-1");
+            regular.borrowBook(book);
+            vip.reserveBook(book);
+            store.checkpoint();
+
+            // 快照之后的变更只在日志里
+            long before = store.getJournal().getSyncCount();
+            lib.importBooks(java.util.stream.IntStream.range(0, 50)
+                    .mapToObj(i -> new Book("I" + i, "A", "WAL-I" + i, BookType.GENERAL, 2)));
+            assertEquals(before + 1, store.getJournal().getSyncCount());
+            regular.returnBook(book);
+            lib.processReservations(book);
+            vip.findBorrowRecord(book).extendDueDate(7);
+            regular.deductScore(3);
+            long due = vip.findBorrowRecord(book).getDueMillis();
+            store.close();
+
+            // 模拟写到一半崩溃留下的残缺记录
+            java.nio.file.Files.write(dir.resolve(LibraryStore.JOURNAL_FILE), new byte[] {0, 0, 0, 40, 1, 2},
+                    java.nio.file.StandardOpenOption.APPEND);
+
+            LibraryStore reopened = new LibraryStore(dir);
+            Library restored = reopened.open();
+            Book restoredBook = restored.findBookByIsbn("WAL-1");
+            User restoredRegular = restored.findUserById("WAL-U1");
+            User restoredVip = restored.findUserById("WAL-U2");
+            assertEquals(51, restored.getBooks().size());
+            assertTrue(restoredVip instanceof VIPUser);
+            assertEquals(0, restoredBook.getAvailableCopies());
+            assertTrue(restoredBook.getReservationQueue().isEmpty());
+            assertNull(restoredRegular.findBorrowRecord(restoredBook));
+            assertEquals(due, restoredVip.findBorrowRecord(restoredBook).getDueMillis());
+            assertEquals(regular.getCreditScore(), restoredRegular.getCreditScore());
+            assertEquals(vip.getCreditScore(), restoredVip.getCreditScore());
+            assertEquals(1, restored.getDueDateIndex().size());
+
+            // 重放后的变更继续写入同一份日志
+            restoredVip.returnBook(restoredBook);
+            reopened.close();
+            try (LibraryStore third = new LibraryStore(dir)) {
+                assertEquals(1, third.open().findBookByIsbn("WAL-1").getAvailableCopies());
+            }
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(java.io.File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void testLibraryStore_ShouldJournalContactsFreezesAndVipExtension() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("library-store");
+        try {
+            LibraryStore store = new LibraryStore(dir);
+            Library lib = store.open();
+            lib.addBook(new Book("WJ", "A", "WJ-1", BookType.GENERAL, 3));
+            RegularUser regular = new RegularUser("R", "WJ-U1");
+            regular.setEmail("r@example.com");
+            regular.setPhoneNumber("123");
+            lib.registerUser(regular);
+            VIPUser vip = new VIPUser("V", "WJ-U2");
+            lib.registerUser(vip);
+            Book book = lib.findBookByIsbn("WJ-1");
+            vip.borrowBook(book);
+            vip.extendBorrowPeriod(book);
+            regular.fines = 60; // 罚金超限，借书时被冻结
+            assertEquals(BorrowResult.FINES_TOO_HIGH, regular.tryBorrow(book));
+            store.close();
+
+            try (LibraryStore reopened = new LibraryStore(dir)) {
+                Library restored = reopened.open();
+                User restoredRegular = restored.findUserById("WJ-U1");
+                VIPUser restoredVip = (VIPUser) restored.findUserById("WJ-U2");
+                assertEquals("r@example.com", restoredRegular.getEmail());
+                assertEquals("123", restoredRegular.getPhoneNumber());
+                assertEquals(AccountStatus.FROZEN, restoredRegular.getAccountStatus());
+                assertTrue(restoredVip.hasExtendedBorrow());
+                try {
+                    restoredVip.extendBorrowPeriod(restored.findBookByIsbn("WJ-1"));
+                    fail("续借只能一次");
+                } catch (InvalidOperationException expected) {
+                }
+            }
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(java.io.File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void testLibraryStore_Checkpoint_ShouldKeepEntriesLoggedConcurrently() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("library-store");
+        try {
+            LibraryStore store = new LibraryStore(dir);
+            Library lib = store.open();
+            lib.addBook(new Book("CP", "A", "CP-1", BookType.GENERAL, 100));
+            Book book = lib.findBookByIsbn("CP-1");
+            java.util.List<VIPUser> users = new java.util.ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                VIPUser u = new VIPUser("CP", "CP-U" + i);
+                lib.registerUser(u);
+                users.add(u);
+            }
+            java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+            java.util.List<Thread> workers = new java.util.ArrayList<>();
+            for (VIPUser u : users) {
+                Thread t = new Thread(() -> {
+                    for (int n = 0; !done.get(); n++) {
+                        if (n % 2 == 0) {
+                            u.tryBorrow(book);
+                        } else {
+                            u.tryReturn(book);
+                        }
+                    }
+                });
+                t.start();
+                workers.add(t);
+            }
+            for (int i = 0; i < 20; i++) {
+                store.checkpoint();
+            }
+            done.set(true);
+            for (Thread t : workers) {
+                t.join(5000);
+            }
+            int available = book.getAvailableCopies();
+            store.close();
+
+            try (LibraryStore reopened = new LibraryStore(dir)) {
+                Library restored = reopened.open();
+                Book restoredBook = restored.findBookByIsbn("CP-1");
+                assertEquals(available, restoredBook.getAvailableCopies());
+                for (VIPUser u : users) {
+                    User r = restored.findUserById(u.getUserId());
+                    assertEquals(u.getBorrowedBooks().size(), r.getBorrowedBooks().size());
+                    assertEquals(u.getCreditScore(), r.getCreditScore());
+                }
+            }
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(java.io.File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void testLibraryStore_Checkpoint_ShouldKeepBooksAndUsersAddedConcurrently() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("library-store");
+        try {
+            LibraryStore store = new LibraryStore(dir);
+            Library lib = store.open();
+            int count = 2000;
+            java.util.concurrent.atomic.AtomicReference<Throwable> error = new java.util.concurrent.atomic.AtomicReference<>();
+            Thread adder = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    lib.addBook(new Book("CPA", "A", "CPA-" + i, BookType.GENERAL, 1));
+                    lib.registerUser(new RegularUser("CPA", "CPA-U" + i));
+                }
+            });
+            adder.start();
+            while (adder.isAlive()) {
+                try {
+                    store.checkpoint();
+                } catch (Throwable t) {
+                    error.set(t);
+                    break;
+                }
+            }
+            adder.join();
+            assertNull(error.get());
+            store.checkpoint();
+            store.close();
+
+            try (LibraryStore reopened = new LibraryStore(dir)) {
+                Library restored = reopened.open();
+                assertEquals(count, restored.getBooks().size());
+                assertEquals(count, restored.getUsers().size());
+            }
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(java.io.File::delete);
+            }
+        }
+    }
+
+    /** ========================== 内存映射目录 ========================== */
+    @Test
+    public void testMappedCatalog_ShouldServeBooksOnDemandAndPersistCopies() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("catalog", ".bin");
+        try {
+            java.util.List<Book> source = new java.util.ArrayList<>();
+            for (int i = 999; i >= 0; i--) {
+                source.add(new Book("标题" + i, i == 7 ? null : "Author " + i, String.format("MC-%04d", i),
+                        i % 10 == 0 ? BookType.RARE : BookType.GENERAL, 2));
+            }
+            source.add(new Book("dup", "A", "MC-0001", BookType.GENERAL, 9));
+            source.add(new Book("no isbn", "A", null, BookType.GENERAL, 1));
+            assertEquals(1000, MappedCatalog.write(file, source));
+
+            try (MappedCatalog catalog = MappedCatalog.open(file)) {
+                Library lib = new Library(catalog);
+                assertEquals(0, catalog.materializedCount());
+                Book book = lib.findBookByIsbn("MC-0010");
+                assertEquals("标题10", book.getTitle());
+                assertEquals(BookType.RARE, book.getBookType());
+                assertSame(book, lib.findBookByIsbn("MC-0010"));
+                assertNull(lib.findBookByIsbn("MC-0007").getAuthor());
+                assertEquals(2, lib.findBookByIsbn("MC-0001").getTotalCopies());
+                assertNull(lib.findBookByIsbn("MC-1000"));
+                assertEquals(3, catalog.materializedCount());
+
+                lib.addBook(new Book("dup", "A", "MC-0005", BookType.GENERAL, 1));
+                lib.addBook(new Book("new", "A", "MC-NEW", BookType.GENERAL, 1));
+                assertEquals(1001, lib.getBooks().size());
+                assertSame(book, lib.findBookByIsbn("MC-0010"));
+
+                VIPUser vip = new VIPUser("V", "MC-U");
+                vip.borrowBook(book);
+                book.reportRepair();
+
+                // 快照不接受映射目录，以免把整个目录物化到堆上
+                int materialized = catalog.materializedCount();
+                try {
+                    new LibrarySnapshot(lib, 1);
+                    fail();
+                } catch (IllegalArgumentException expected) {
+                }
+                assertEquals(materialized, catalog.materializedCount());
+            }
+
+            try (MappedCatalog catalog = MappedCatalog.open(file)) {
+                Book book = catalog.find("MC-0010");
+                assertEquals(1, book.getAvailableCopies());
+                assertFalse(book.isAvailable());
+                assertEquals("MC-0000", catalog.get(0).getIsbn());
+            }
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    /** ========================== 预约队列延迟分配 ========================== */
+    @Test
+    public void testBook_ReservationQueue_ShouldBeAllocatedOnFirstReservation() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Book a = new Book("LQ", "A", "LQ-1", BookType.GENERAL, 1);
+        Book b = new Book("LQ2", "A", "LQ-2", BookType.GENERAL, 1);
+        assertFalse(a.hasReservations());
+        assertEquals(0, a.reservationCount());
+        assertNull(a.pollReservation());
+
+        RegularUser user = new RegularUser("U", "LQ-U1");
+        user.borrowBook(a);
+        assertEquals(RenewalResult.RENEWED, new AutoRenewalService().renewAll(user.getBorrowedBooks())[0]);
+        a.removeReservation(new Reservation(a, user)); // 从未预约的书上取消，不会分配队列
+        Library lib = new Library();
+        lib.processReservations(java.util.Arrays.asList(a, b));
+        assertFalse(a.hasReservations());
+
+        user.reserveBook(b);
+        assertTrue(b.hasReservations());
+        assertEquals(1, b.reservationCount());
+        user.cancelReservation(b);
+        assertFalse(b.hasReservations());
+
+        // 直接使用队列时按需分配，而不是返回只读的空队列
+        a.getReservationQueue().add(new Reservation(a, new RegularUser("U", "LQ-U0")));
+        assertEquals(1, a.reservationCount());
+        assertNotSame(a.getReservationQueue(), b.getReservationQueue());
+    }
+
+    /** ========================== 目录字符串池 ========================== */
+    @Test
+    public void testStringPool_ShouldStoreRepeatedAuthorsAndTitlesOnce() {
+        StringPool pool = new StringPool();
+        String luXun = pool.canonical(new String("Lu Xun"));
+        assertSame(luXun, pool.canonical(new String("Lu Xun")));
+        assertSame(luXun, pool.canonical("by Lu Xun!", 3, 9));
+        assertSame(luXun, pool.canonical(new StringBuilder("Lu Xun"), 0, 6));
+        assertNull(pool.canonical(null));
+        String[] authors = new String[5000];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = pool.canonical("author " + i);
+        }
+        for (int i = 0; i < authors.length; i++) {
+            assertSame(authors[i], pool.canonical(new String("author " + i)));
+        }
+        assertSame(luXun, pool.canonical("Lu Xun"));
+
+        // 池属于图书馆：同一馆内重复的作者和书名只保存一份
+        Library lib = new Library();
+        Book a = new Book(new String("呐喊"), new String("鲁迅"), "SP-1", BookType.GENERAL, 1);
+        lib.addBook(a);
+        lib.importBooks(CatalogLoader.readTsv(new java.io.BufferedReader(new java.io.StringReader(
+                "呐喊\t鲁迅\tSP-2\tGENERAL\t2\n彷徨\t鲁迅\tSP-4\tGENERAL\t1\n"))));
+        Book b = lib.findBookByIsbn("SP-2");
+        assertTrue(a.hasSameAuthor(b));
+        assertSame(a.getTitle(), b.getTitle());
+        assertSame(a.getAuthor(), b.getAuthor());
+        assertSame(a.getAuthor(), lib.findBookByIsbn("SP-4").getAuthor());
+        assertEquals("SP-2", b.getIsbn());
+        assertEquals(2, b.getTotalCopies());
+        b.setTitle("彷徨");
+        assertEquals("彷徨", b.getTitle());
+        assertNull(new Book("T", null, "SP-3", BookType.GENERAL, 1).getAuthor());
+
+        // 不同图书馆各用各的池
+        Library other = new Library();
+        Book c = new Book(new String("呐喊"), new String("鲁迅"), "SP-1", BookType.GENERAL, 1);
+        other.addBook(c);
+        assertNotSame(a.getAuthor(), c.getAuthor());
+        assertTrue(a.hasSameAuthor(c));
+    }
+
+    /** ========================== 目录全文检索 ========================== */
+    @Test
+    public void testLibrary_SearchBooks_ShouldMatchPrefixFuzzyAndRankByAvailability() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        Library lib = new Library();
+        Book shelved = new Book("Java Concurrency in Practice", "Brian Goetz", "FT-1", BookType.GENERAL, 3);
+        Book lent = new Book("Concurrency Patterns", "Doug Lea", "FT-2", BookType.GENERAL, 1);
+        Book effective = new Book("Effective Java", "Joshua Bloch", "FT-3", BookType.GENERAL, 2);
+        lib.addBook(shelved);
+        lib.addBook(lent);
+        lib.addBook(effective);
+        lib.addBook(new Book("呐喊", "鲁迅", "FT-4", BookType.GENERAL, 1));
+        new VIPUser("V", "FT-U").borrowBook(lent);
+
+        assertEquals(java.util.Arrays.asList(shelved, lent), lib.searchBooks("concurrency", 10));
+        assertEquals(java.util.Arrays.asList(shelved), lib.searchBooks("java concurrency", 10));
+        assertEquals(java.util.Arrays.asList(shelved, effective), lib.searchBooks("JAVA", 10));
+        assertEquals(java.util.Arrays.asList(shelved, lent), lib.searchBooks("concur", 10)); // 前缀
+        assertEquals(java.util.Arrays.asList(effective), lib.searchBooks("efective", 10));   // 拼写错误
+        assertEquals(java.util.Arrays.asList(lent), lib.searchBooks("lea", 10));            // 作者
+        assertEquals("FT-4", lib.searchBooks("鲁迅", 10).get(0).getIsbn());
+        assertEquals(1, lib.searchBooks("concurrency", 1).size());
+        assertTrue(lib.searchBooks("python", 10).isEmpty());
+        assertTrue(lib.searchBooks("  ", 10).isEmpty());
+
+        // 批量导入的书增量进入索引
+        lib.importBooks(java.util.stream.IntStream.range(0, 1000)
+                .mapToObj(i -> new Book("Volume " + i + " of Concurrency", "Editor", "FT-V" + i, BookType.GENERAL, 1)));
+        assertEquals(1, lib.searchBooks("volume 999", 10).size());
+        assertEquals(10, lib.searchBooks("concurrency", 10).size());
+        assertSame(shelved, lib.searchBooks("concurrency goetz", 10).get(0));
+    }
+
+    @Test
+    public void testLibrary_SearchBooks_ShouldIndexMappedCatalogOnDemand() throws Exception {
+        LibraryLog.setSink(LogSink.NONE);
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("catalog", ".bin");
+        try {
+            MappedCatalog.write(file, java.util.Arrays.asList(
+                    new Book("Distributed Systems", "Maarten van Steen", "FTM-1", BookType.GENERAL, 1),
+                    new Book("Operating Systems", "Remzi Arpaci", "FTM-2", BookType.GENERAL, 3)));
+            try (MappedCatalog catalog = MappedCatalog.open(file)) {
+                Library lib = new Library(catalog);
+                Book heap = new Book("Systems Performance", "Brendan Gregg", "FTM-3", BookType.GENERAL, 4);
+                lib.addBook(heap);
+                // 按记录中的可借数量排序，只物化返回的书
+                java.util.List<Book> top = lib.searchBooks("systems", 2);
+                assertSame(heap, top.get(0));
+                assertEquals("FTM-2", top.get(1).getIsbn());
+                assertEquals(1, catalog.materializedCount());
+                assertEquals(3, lib.searchBooks("systems", 10).size());
+                assertEquals(2, catalog.materializedCount());
+                assertEquals("FTM-1", lib.searchBooks("distrib", 10).get(0).getIsbn());
+
+                // 已物化的书按实时数量排序
+                lib.findBookByIsbn("FTM-2").setAvailableCopies(0);
+                assertEquals("FTM-1", lib.searchBooks("systems", 2).get(1).getIsbn());
+            }
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
 }